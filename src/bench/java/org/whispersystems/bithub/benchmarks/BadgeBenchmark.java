@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.whispersystems.bithub.util.Badge;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders payment badges from their decoded templates (cold) and fetches
+ * an unchanged price's badge from the render cache (warm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BadgeBenchmark {
+
+  private static final String PRICE = "12.05";
+
+  @Param({"LARGE", "SMALL"})
+  private Badge.Variant variant;
+
+  @Setup
+  public void setup() throws IOException {
+    Badge.create(variant, PRICE);
+  }
+
+  @Benchmark
+  public byte[] coldRender() throws IOException {
+    return Badge.render(variant, PRICE);
+  }
+
+  @Benchmark
+  public byte[] warmRender() throws IOException {
+    return Badge.create(variant, PRICE);
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.payouts.CommitRules;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classifies the messages of a large push with the compiled CommitRules,
+ * and with the previous chain of startsWith/contains scans and mode string
+ * comparisons, extended to one contains scan per configured keyword.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitRulesBenchmark {
+
+  @Param({"MONEYMONEY", "FREEBIE"})
+  private String mode;
+
+  @Param({"1", "8"})
+  private int keywords;
+
+  @Param({"500"})
+  private int commits;
+
+  @Param({"2048"})
+  private int messageLength;
+
+  private String[]     messages;
+  private List<String> keywordList;
+  private String       keyword;
+  private CommitRules  rules;
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(1);
+
+    keyword     = mode.equals("MONEYMONEY") ? "FREEBIE" : "MONEYMONEY";
+    keywordList = new LinkedList<>();
+    keywordList.add(keyword);
+
+    for (int i=1;i<keywords;i++) {
+      keywordList.add("[no-pay-" + i + "]");
+    }
+
+    Map<String, Object> configuration = new HashMap<>();
+    configuration.put("url", "https://github.com/moxie0/test");
+    configuration.put("mode", mode);
+    configuration.put(mode.equals("MONEYMONEY") ? "optOutKeywords" : "optInKeywords", keywordList);
+
+    messages = new String[commits];
+    rules    = new CommitRules(new ObjectMapper().convertValue(configuration, RepositoryConfiguration.class));
+
+    for (int i=0;i<commits;i++) {
+      StringBuilder message = new StringBuilder(i % 10 == 0 ? "Merge branch 'feature'\n\n" : "Fix a bug\n\n");
+
+      while (message.length() < messageLength) {
+        message.append((char)('a' + random.nextInt(26)));
+        if (random.nextInt(8) == 0) message.append(' ');
+      }
+
+      if      (i % 7 == 0) message.append(" FREEBIE");
+      else if (i % 5 == 0) message.append(" MONEYMONEY");
+
+      messages[i] = message.toString();
+    }
+  }
+
+  @Benchmark
+  public int legacyScans() {
+    int payable = 0;
+
+    for (String message : messages) {
+      if (isViableMessage(message, mode)) payable++;
+    }
+
+    return payable;
+  }
+
+  @Benchmark
+  public int compiledRules() {
+    int payable = 0;
+
+    for (String message : messages) {
+      if (rules.isPayableMessage(message)) payable++;
+    }
+
+    return payable;
+  }
+
+  private boolean isViableMessage(String message, String defaultMode) {
+    if (message == null || message.startsWith("Merge"))
+      return false;
+
+    boolean contains = false;
+
+    for (String keyword : keywordList) {
+      contains |= message.contains(keyword);
+    }
+
+    return (!contains && defaultMode.equals("MONEYMONEY")) ||
+           (contains && defaultMode.equals("FREEBIE"));
+  }
+}
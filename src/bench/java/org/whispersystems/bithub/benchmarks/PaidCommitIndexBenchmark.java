@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.whispersystems.bithub.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.whispersystems.bithub.storage.PaidCommitIndex;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up paid and unpaid commits in a PaidCommitIndex that has been
+ * compacted to a memory-mapped file of a few million historical commits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaidCommitIndexBenchmark {
+
+  private static final String REPOSITORY = "https://github.com/WhisperSystems/TextSecure";
+  private static final int    SAMPLES    = 4096;
+
+  @Param({"1000000", "4000000"})
+  private int commits;
+
+  private File            directory;
+  private PaidCommitIndex index;
+  private String[]        paid   = new String[SAMPLES];
+  private String[]        unpaid = new String[SAMPLES];
+  private int             next;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    Random random = new Random(1234);
+
+    directory = Files.createTempDirectory("paid-commits").toFile();
+
+    List<String> history = new ArrayList<>(commits);
+
+    for (int i=0;i<commits;i++) {
+      history.add(createSha(random));
+      if (i < SAMPLES) paid[i] = history.get(i);
+    }
+
+    index = new PaidCommitIndex(directory, commits);
+    index.start();
+    index.importPaid(REPOSITORY, history);
+
+    for (int i=0;i<SAMPLES;i++) {
+      unpaid[i] = createSha(random);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    index.stop();
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+
+    directory.delete();
+  }
+
+  @Benchmark
+  public boolean paidLookup() {
+    return index.isPaid(REPOSITORY, paid[next++ & (SAMPLES - 1)]);
+  }
+
+  @Benchmark
+  public boolean unpaidLookup() {
+    return index.isPaid(REPOSITORY, unpaid[next++ & (SAMPLES - 1)]);
+  }
+
+  private static String createSha(Random random) {
+    return String.format("%016x%016x%08x", random.nextLong(), random.nextLong(), random.nextInt());
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.whispersystems.bithub.codec.PushEventCodec;
+import org.whispersystems.bithub.entities.PushEvent;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.ValidatorFactory;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming PushEventCodec against the previous decoding path,
+ * which built a new ObjectMapper and ValidatorFactory for every webhook.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushEventDecodingBenchmark {
+
+  @Param({"valid_commit", "multiple_commits_authors", "opt_out_commit"})
+  private String payloadName;
+
+  private String payload;
+
+  @Setup
+  public void setup() throws IOException {
+    payload = Resources.toString(Resources.getResource("payloads/" + payloadName + ".json"), Charsets.UTF_8);
+  }
+
+  @Benchmark
+  public PushEvent perRequestDataBinding() throws IOException {
+    ObjectMapper     objectMapper = new ObjectMapper();
+    PushEvent        event        = objectMapper.readValue(payload, PushEvent.class);
+    ValidatorFactory factory      = Validation.buildDefaultValidatorFactory();
+    Validator        validator    = factory.getValidator();
+
+    validator.validate(event);
+    return event;
+  }
+
+  @Benchmark
+  public PushEvent streamingCodec() throws IOException {
+    return PushEventCodec.decode(payload);
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.benchmarks;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.whispersystems.bithub.auth.WebhookSignatureVerifier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures webhook signature verification throughput with several threads,
+ * comparing the per-thread cached verifier against building and keying a
+ * new Mac for every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class WebhookSignatureBenchmark {
+
+  private static final String SECRET = "benchmark-secret";
+
+  @Param({"1024", "65536"})
+  private int bodySize;
+
+  private byte[]                   body;
+  private String                   signature;
+  private WebhookSignatureVerifier verifier;
+
+  @Setup
+  public void setup() throws Exception {
+    body = new byte[bodySize];
+    new Random(1).nextBytes(body);
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(SECRET.getBytes(Charsets.UTF_8), "HmacSHA256"));
+
+    signature = "sha256=" + Hex.encodeHexString(mac.doFinal(body));
+    verifier  = new WebhookSignatureVerifier(SECRET);
+  }
+
+  @Benchmark
+  public boolean perRequestMac() throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(SECRET.getBytes(Charsets.UTF_8), "HmacSHA256"));
+
+    byte[] expected = Hex.decodeHex(signature.substring("sha256=".length()).toCharArray());
+    return MessageDigest.isEqual(expected, mac.doFinal(body));
+  }
+
+  @Benchmark
+  public boolean cachedVerifier() {
+    return verifier.verify(body, 0, body.length, signature);
+  }
+}
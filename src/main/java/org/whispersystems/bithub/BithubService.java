@@ -18,24 +18,55 @@
 package org.whispersystems.bithub;
 
 import org.eclipse.jetty.servlets.CrossOriginFilter;
+import org.whispersystems.bithub.auth.AdminAuthProvider;
+import org.whispersystems.bithub.auth.AdminAuthenticator;
 import org.whispersystems.bithub.auth.GithubWebhookAuthenticator;
+import org.whispersystems.bithub.auth.IpAllowList;
+import org.whispersystems.bithub.auth.WebhookAuthProvider;
+import org.whispersystems.bithub.auth.WebhookSignatureFilter;
+import org.whispersystems.bithub.auth.WebhookSignatureVerifier;
 import org.whispersystems.bithub.client.CoinbaseClient;
 import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.client.GithubRateLimiter;
+import org.whispersystems.bithub.config.AdminConfiguration;
+import org.whispersystems.bithub.config.BatchingConfiguration;
+import org.whispersystems.bithub.config.CacheConfiguration;
+import org.whispersystems.bithub.config.CommentConfiguration;
+import org.whispersystems.bithub.config.DeduplicationConfiguration;
+import org.whispersystems.bithub.config.DescriptionCacheConfiguration;
+import org.whispersystems.bithub.config.IntakeConfiguration;
+import org.whispersystems.bithub.config.JournalConfiguration;
+import org.whispersystems.bithub.config.PaidCommitConfiguration;
+import org.whispersystems.bithub.config.RateLimitConfiguration;
 import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.config.RetryConfiguration;
+import org.whispersystems.bithub.config.WebhookConfiguration;
 import org.whispersystems.bithub.controllers.DashboardController;
 import org.whispersystems.bithub.controllers.GithubController;
+import org.whispersystems.bithub.controllers.PaymentAdminController;
 import org.whispersystems.bithub.controllers.StatusController;
 import org.whispersystems.bithub.mappers.IOExceptionMapper;
 import org.whispersystems.bithub.mappers.UnauthorizedHookExceptionMapper;
+import org.whispersystems.bithub.payouts.CommentOutbox;
+import org.whispersystems.bithub.payouts.JournalReplayer;
+import org.whispersystems.bithub.payouts.PaymentRetryQueue;
+import org.whispersystems.bithub.payouts.PayoutBatcher;
+import org.whispersystems.bithub.payouts.PayoutProcessor;
+import org.whispersystems.bithub.payouts.PushEventDeduplicator;
+import org.whispersystems.bithub.payouts.PushEventQueue;
+import org.whispersystems.bithub.storage.BalanceLedger;
 import org.whispersystems.bithub.storage.CacheManager;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+import org.whispersystems.bithub.storage.PaidCommitIndex;
+import org.whispersystems.bithub.storage.PushEventJournal;
 
 import javax.servlet.DispatcherType;
+import java.io.File;
 import java.math.BigDecimal;
 import java.util.EnumSet;
 import java.util.List;
 
 import io.dropwizard.Application;
-import io.dropwizard.auth.basic.BasicAuthProvider;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.dropwizard.views.ViewBundle;
@@ -60,28 +91,126 @@ public class BithubService extends Application<BithubServerConfiguration> {
     String                        githubToken        = config.getGithubConfiguration().getToken();
     String                        githubWebhookUser  = config.getGithubConfiguration().getWebhookConfiguration().getUsername();
     String                        githubWebhookPwd   = config.getGithubConfiguration().getWebhookConfiguration().getPassword();
+    WebhookConfiguration          webhook            = config.getGithubConfiguration().getWebhookConfiguration();
     List<RepositoryConfiguration> githubRepositories = config.getGithubConfiguration().getRepositories();
     BigDecimal                    payoutRate         = config.getBithubConfiguration().getPayoutRate();
     String                        organizationName   = config.getOrganizationConfiguration().getName();
     String                        donationUrl        = config.getOrganizationConfiguration().getDonationUrl().toExternalForm();
+    IntakeConfiguration           intake             = config.getBithubConfiguration().getIntakeConfiguration();
+    JournalConfiguration          journalConfig      = config.getBithubConfiguration().getJournalConfiguration();
+    DeduplicationConfiguration    deduplication      = config.getBithubConfiguration().getDeduplicationConfiguration();
+    BatchingConfiguration         batching           = config.getBithubConfiguration().getBatchingConfiguration();
+    CommentConfiguration          comments           = config.getBithubConfiguration().getCommentConfiguration();
+    RetryConfiguration            retries            = config.getBithubConfiguration().getRetryConfiguration();
+    PaidCommitConfiguration       paidCommitConfig   = config.getBithubConfiguration().getPaidCommitConfiguration();
+    CacheConfiguration            cacheConfig        = config.getBithubConfiguration().getCacheConfiguration();
+    RateLimitConfiguration        rateLimit          = config.getGithubConfiguration().getRateLimitConfiguration();
+    AdminConfiguration            admin              = config.getBithubConfiguration().getAdminConfiguration();
 
-    GithubClient   githubClient   = new GithubClient(githubUser, githubToken);
-    CoinbaseClient coinbaseClient = new CoinbaseClient(config.getCoinbaseConfiguration().getApiKey());
-    CacheManager   cacheManager   = new CacheManager(coinbaseClient, githubClient, githubRepositories, payoutRate);
+    GithubRateLimiter rateLimiter = new GithubRateLimiter(rateLimit.getReserved(),
+                                                          rateLimit.getThrottleBackoff().toMilliseconds(),
+                                                          environment.metrics());
 
-    environment.servlets().addFilter("CORS", CrossOriginFilter.class)
-               .addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), true, "/*");
+    GithubClient      githubClient   = new GithubClient(githubUser, githubToken, rateLimiter, environment.metrics());
+    CoinbaseClient    coinbaseClient = new CoinbaseClient(config.getCoinbaseConfiguration().getApiKey());
+    BalanceLedger     ledger         = new BalanceLedger(coinbaseClient, environment.metrics());
+
+    // Managed objects are stopped in reverse, so everything that reconciles
+    // through the ledger is stopped before its fetch threads are.
+    environment.lifecycle().manage(ledger);
 
+    DescriptionCacheConfiguration descriptionConfig = cacheConfig.getDescriptions();
+
+    CommitDescriptionCache descriptions = new CommitDescriptionCache(githubClient,
+                                                                     descriptionConfig.isPersistent() ? new File(descriptionConfig.getDirectory()) : null,
+                                                                     descriptionConfig.getCapacity(),
+                                                                     environment.metrics());
+    environment.lifecycle().manage(descriptions);
+
+    CacheManager cacheManager = new CacheManager(coinbaseClient, githubClient, ledger, githubRepositories,
+                                                 payoutRate, descriptions, cacheConfig, environment.metrics());
     environment.lifecycle().manage(cacheManager);
 
-    environment.jersey().register(new GithubController(githubRepositories, githubClient, coinbaseClient, payoutRate));
+    PushEventJournal journal = null;
+
+    if (journalConfig.isEnabled()) {
+      journal = new PushEventJournal(new File(journalConfig.getDirectory()),
+                                     journalConfig.getSegmentSize().toBytes());
+      environment.lifecycle().manage(journal);
+    }
+
+    PaidCommitIndex paidCommits = new PaidCommitIndex(paidCommitConfig.isPersistent() ? new File(paidCommitConfig.getDirectory()) : null,
+                                                      paidCommitConfig.getExpectedCommits());
+    environment.lifecycle().manage(paidCommits);
+
+    CommentOutbox outbox = new CommentOutbox(githubClient,
+                                             comments.isPersistent() ? new File(comments.getDirectory()) : null,
+                                             comments.getConcurrency(), comments.getMaxAttempts(),
+                                             comments.getInitialBackoff().toMilliseconds(),
+                                             comments.getMaxBackoff().toMilliseconds(),
+                                             environment.metrics());
+    environment.lifecycle().manage(outbox);
+
+    PaymentRetryQueue retryQueue = new PaymentRetryQueue(coinbaseClient, ledger, outbox, cacheManager,
+                                                         retries.isPersistent() ? new File(retries.getDirectory()) : null,
+                                                         retries.getMaxAttempts(),
+                                                         retries.getInitialBackoff().toMilliseconds(),
+                                                         retries.getMaxBackoff().toMilliseconds(),
+                                                         environment.metrics());
+    environment.lifecycle().manage(retryQueue);
+
+    PayoutBatcher batcher = null;
+
+    if (batching.isEnabled()) {
+      batcher = new PayoutBatcher(coinbaseClient, batching.getWindow().toMilliseconds(),
+                                  batching.getMaxPayments(), environment.metrics());
+      environment.lifecycle().manage(batcher);
+    }
+
+    PayoutProcessor payoutProcessor = new PayoutProcessor(githubRepositories, githubClient, coinbaseClient,
+                                                          ledger, payoutRate, journal, batcher, outbox,
+                                                          retryQueue, paidCommits, cacheManager);
+    PushEventQueue  pushEventQueue  = null;
+
+    if (intake.isQueued()) {
+      pushEventQueue = new PushEventQueue(payoutProcessor, intake.getQueueSize(),
+                                          intake.getLanes(), environment.metrics());
+      environment.lifecycle().manage(pushEventQueue);
+    }
+
+    if (journal != null) {
+      environment.lifecycle().manage(new JournalReplayer(journal, payoutProcessor, pushEventQueue));
+    }
+
+    PushEventDeduplicator deduplicator = new PushEventDeduplicator(deduplication.getCapacity(),
+                                                                   deduplication.getWindow().toMilliseconds(),
+                                                                   environment.metrics());
+
+    IpAllowList allowList = new IpAllowList(webhook.getRanges(),
+                                            webhook.getMetaFile() != null ? new File(webhook.getMetaFile()) : null,
+                                            webhook.getMetaRefresh().toMilliseconds(),
+                                            webhook.getTrustedProxies());
+    environment.lifecycle().manage(allowList);
+
+    environment.servlets().addFilter("CORS", CrossOriginFilter.class)
+               .addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), true, "/*");
+
+    environment.jersey().register(new GithubController(githubRepositories, payoutProcessor, pushEventQueue, journal, deduplicator, allowList));
     environment.jersey().register(new StatusController(cacheManager, githubRepositories));
     environment.jersey().register(new DashboardController(organizationName, donationUrl, cacheManager));
 
+    if (admin.isEnabled()) {
+      environment.jersey().register(new PaymentAdminController(retryQueue));
+      environment.jersey().register(new AdminAuthProvider(new AdminAuthenticator(admin.getUsername(), admin.getPassword())));
+    }
+
     environment.jersey().register(new IOExceptionMapper());
     environment.jersey().register(new UnauthorizedHookExceptionMapper());
-    environment.jersey().register(new BasicAuthProvider<>(new GithubWebhookAuthenticator(githubWebhookUser, githubWebhookPwd),
-                                                          GithubWebhookAuthenticator.REALM));
+    environment.jersey().register(new WebhookAuthProvider(new GithubWebhookAuthenticator(githubWebhookUser, githubWebhookPwd)));
+
+    WebhookSignatureVerifier verifier = webhook.isSignatureRequired() ? new WebhookSignatureVerifier(webhook.getSecret()) : null;
+    environment.jersey().getResourceConfig().getContainerRequestFilters()
+               .add(new WebhookSignatureFilter(verifier, (int)webhook.getMaxBodySize().toBytes()));
   }
 
   public static void main(String[] args) throws Exception {
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.auth;
+
+import com.sun.jersey.api.model.Parameter;
+import com.sun.jersey.core.spi.component.ComponentContext;
+import com.sun.jersey.core.spi.component.ComponentScope;
+import com.sun.jersey.spi.inject.Injectable;
+import com.sun.jersey.spi.inject.InjectableProvider;
+import org.whispersystems.bithub.auth.AdminAuthenticator.Administrator;
+
+import io.dropwizard.auth.Auth;
+import io.dropwizard.auth.basic.BasicAuthProvider;
+
+/**
+ * Authenticates the {@link Administrator} parameters of admin resources
+ * with HTTP basic auth against the admin credentials, leaving all other
+ * {@link Auth} parameters to the WebhookAuthProvider.
+ *
+ * @author Moxie Marlinspike
+ */
+public class AdminAuthProvider implements InjectableProvider<Auth, Parameter> {
+
+  private final BasicAuthProvider<Administrator> basicAuthProvider;
+
+  public AdminAuthProvider(AdminAuthenticator authenticator) {
+    this.basicAuthProvider = new BasicAuthProvider<>(authenticator, AdminAuthenticator.REALM);
+  }
+
+  @Override
+  public ComponentScope getScope() {
+    return ComponentScope.PerRequest;
+  }
+
+  @Override
+  public Injectable<?> getInjectable(ComponentContext context, Auth auth, Parameter parameter) {
+    if (!Administrator.class.equals(parameter.getParameterClass())) {
+      return null;
+    }
+
+    return basicAuthProvider.getInjectable(context, auth, parameter);
+  }
+}
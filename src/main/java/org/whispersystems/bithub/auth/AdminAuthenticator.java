@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.auth;
+
+import com.google.common.base.Optional;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import io.dropwizard.auth.Authenticator;
+import io.dropwizard.auth.basic.BasicCredentials;
+
+/**
+ * Accepts only the configured administrator credentials, which are kept
+ * separate from the webhook credentials that every hook URL embeds.
+ *
+ * @author Moxie Marlinspike
+ */
+public class AdminAuthenticator implements Authenticator<BasicCredentials, AdminAuthenticator.Administrator> {
+
+  /**
+   * Represents a successful administrator authentication.
+   */
+  public static class Administrator {
+  }
+
+  public static final String REALM = "bithub-admin";
+
+  private final byte[] username;
+  private final byte[] password;
+
+  public AdminAuthenticator(String username, String password) {
+    this.username = username.getBytes(StandardCharsets.UTF_8);
+    this.password = password.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public Optional<Administrator> authenticate(BasicCredentials clientCredentials) {
+    boolean username = MessageDigest.isEqual(this.username, clientCredentials.getUsername().getBytes(StandardCharsets.UTF_8));
+    boolean password = MessageDigest.isEqual(this.password, clientCredentials.getPassword().getBytes(StandardCharsets.UTF_8));
+
+    if (username && password) {
+      return Optional.of(new Administrator());
+    } else {
+      return Optional.absent();
+    }
+  }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.auth;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.net.InetAddresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * The IPv4 and IPv6 ranges that GitHub webhooks are accepted from.
+ *
+ * The ranges are held in a pair of prefix tries behind an atomic reference,
+ * so that they can be replaced while requests are being checked.  They come
+ * from configuration, and optionally from a file in the format of GitHub's
+ * "meta" API response, whose "hooks" ranges are reloaded periodically.
+ *
+ * @author Moxie Marlinspike
+ */
+public class IpAllowList implements Managed {
+
+  public static final List<String> GITHUB_HOOK_RANGES = Collections.unmodifiableList(Arrays.asList(
+      "192.30.252.0/22", "185.199.108.0/22", "140.82.112.0/20", "143.55.64.0/20",
+      "2a0a:a440::/29", "2606:50c0::/32"));
+
+  private final Logger                   logger   = LoggerFactory.getLogger(IpAllowList.class);
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+  private final AtomicReference<Ranges>  ranges   = new AtomicReference<>();
+
+  private final List<String> configuredRanges;
+  private final File         metaFile;
+  private final long         refreshMillis;
+  private final int          trustedProxies;
+
+  public IpAllowList(List<String> ranges) {
+    this(ranges, null, 0, 1);
+  }
+
+  /**
+   * @param metaFile       A GitHub "meta" JSON file with additional "hooks" ranges, or null.
+   * @param trustedProxies The number of X-Forwarded-For entries appended by our own
+   *                       proxies.  The first of those, which the outermost proxy
+   *                       appended for the address it was connected from, is the
+   *                       address checked.  Anything before it is client supplied.
+   */
+  public IpAllowList(List<String> ranges, File metaFile, long refreshMillis, int trustedProxies) {
+    this.configuredRanges = ranges;
+    this.metaFile         = metaFile;
+    this.refreshMillis    = refreshMillis;
+    this.trustedProxies   = trustedProxies;
+
+    this.ranges.set(new Ranges(ranges));
+  }
+
+  @Override
+  public void start() throws Exception {
+    if (metaFile == null) {
+      return;
+    }
+
+    reload();
+
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          reload();
+        } catch (IOException | RuntimeException e) {
+          logger.warn("Reloading webhook ranges failed", e);
+        }
+      }
+    }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Rebuilds the ranges from configuration and the meta file.
+   */
+  public void reload() throws IOException {
+    List<String> combined = new LinkedList<>(configuredRanges);
+
+    if (metaFile != null) {
+      JsonNode hooks = new ObjectMapper().readTree(metaFile).path("hooks");
+
+      for (JsonNode range : hooks) {
+        combined.add(range.asText());
+      }
+    }
+
+    update(combined);
+  }
+
+  public void update(Collection<String> ranges) {
+    this.ranges.set(new Ranges(ranges));
+    logger.info("Accepting webhooks from " + ranges.size() + " ranges");
+  }
+
+  /**
+   * @param forwardedFor An X-Forwarded-For header, possibly listing several hops.
+   * @return true if the hop that our trusted proxies received the request from,
+   *         the trustedProxies-th entry from the end, is in range.
+   */
+  public boolean isAllowed(String forwardedFor) {
+    if (forwardedFor == null) {
+      return false;
+    }
+
+    int end = forwardedFor.length();
+
+    // The last entry is our innermost proxy's, so skip the other trustedProxies - 1.
+    for (int i=1;i<trustedProxies;i++) {
+      end = forwardedFor.lastIndexOf(',', end - 1);
+      if (end == -1) return false;
+    }
+
+    int start = forwardedFor.lastIndexOf(',', end - 1) + 1;
+
+    return contains(forwardedFor, start, end);
+  }
+
+  public boolean contains(String address) {
+    return contains(address, 0, address.length());
+  }
+
+  private boolean contains(String address, int start, int end) {
+    while (start < end && address.charAt(start) == ' ') start++;
+    while (end > start && address.charAt(end - 1) == ' ') end--;
+
+    if (end - start > 2 && address.charAt(start) == '[' && address.charAt(end - 1) == ']') {
+      start++;
+      end--;
+    }
+
+    Ranges current = ranges.get();
+
+    if (address.indexOf(':', start) != -1 && address.indexOf(':', start) < end) {
+      return containsIpv6(current.ipv6, address, start, end);
+    } else {
+      long value = parseIpv4(address, start, end);
+      return value != -1 && current.ipv4.descend(current.ipv4.root(), value, 32) == IpPrefixTrie.MATCH;
+    }
+  }
+
+  private boolean containsIpv6(IpPrefixTrie trie, String address, int start, int end) {
+    int groups = countIpv6Groups(address, start, end);
+    if (groups == -1) return false;
+
+    int compressed = address.indexOf("::", start);
+    if (compressed >= end) compressed = -1;
+
+    int missing = 8 - groups;
+
+    if ((compressed == -1 && missing != 0) || (compressed != -1 && missing < 1)) {
+      return false;
+    }
+
+    int node  = trie.root();
+    int pos   = start;
+    int group = 0;
+
+    while (node >= 0 && group < 8) {
+      if (pos == compressed) {
+        for (int i=0;i<missing && node >= 0;i++) {
+          node = trie.descend(node, 0, 16);
+        }
+
+        group += missing;
+        pos   += 2;
+        continue;
+      }
+
+      int next = address.indexOf(':', pos);
+      if (next == -1 || next > end) next = end;
+
+      if (group == 6 && next == end && isDottedQuad(address, pos, end)) {
+        node   = trie.descend(node, parseIpv4(address, pos, end), 32);
+        group += 2;
+      } else {
+        node   = trie.descend(node, parseHex(address, pos, next), 16);
+        group += 1;
+      }
+
+      pos = (next == compressed || next == end) ? next : next + 1;
+    }
+
+    return node == IpPrefixTrie.MATCH;
+  }
+
+  /**
+   * @return The number of explicit 16 bit groups in an IPv6 address, counting
+   *         a trailing dotted quad as two, or -1 if the address is malformed.
+   */
+  private static int countIpv6Groups(String address, int start, int end) {
+    int groups     = 0;
+    int digits     = 0;
+    int compressed = 0;
+
+    for (int i=start;i<end;i++) {
+      char c = address.charAt(i);
+
+      if (c == ':') {
+        if (digits > 0) groups++;
+
+        if (i + 1 < end && address.charAt(i + 1) == ':') {
+          compressed++;
+          i++;
+
+          if (i + 1 < end && address.charAt(i + 1) == ':') return -1;
+        } else if (digits == 0 || i + 1 == end) {
+          return -1;
+        }
+
+        digits = 0;
+      } else if (c == '.') {
+        if (parseIpv4(address, i - digits, end) == -1) return -1;
+        return compressed > 1 ? -1 : groups + 2;
+      } else if (Character.digit(c, 16) != -1 && ++digits <= 4) {
+        continue;
+      } else {
+        return -1;
+      }
+    }
+
+    if (digits > 0) groups++;
+
+    return compressed > 1 ? -1 : groups;
+  }
+
+  private static boolean isDottedQuad(String address, int start, int end) {
+    int dot = address.indexOf('.', start);
+    return dot != -1 && dot < end;
+  }
+
+  private static int parseHex(String address, int start, int end) {
+    int value = 0;
+
+    for (int i=start;i<end;i++) {
+      value = (value << 4) | Character.digit(address.charAt(i), 16);
+    }
+
+    return value;
+  }
+
+  private static long parseIpv4(String address, int start, int end) {
+    long value  = 0;
+    int  octet  = -1;
+    int  octets = 0;
+
+    for (int i=start;i<=end;i++) {
+      char c = i < end ? address.charAt(i) : '.';
+
+      if (c == '.') {
+        if (octet == -1 || ++octets > 4) return -1;
+        value = (value << 8) | octet;
+        octet = -1;
+      } else if (c >= '0' && c <= '9') {
+        octet = (octet == -1 ? 0 : octet * 10) + (c - '0');
+        if (octet > 255) return -1;
+      } else {
+        return -1;
+      }
+    }
+
+    return octets == 4 ? value : -1;
+  }
+
+  private static class Ranges {
+
+    private final IpPrefixTrie ipv4;
+    private final IpPrefixTrie ipv6;
+
+    private Ranges(Collection<String> ranges) {
+      IpPrefixTrie.Builder ipv4 = new IpPrefixTrie.Builder();
+      IpPrefixTrie.Builder ipv6 = new IpPrefixTrie.Builder();
+
+      for (String range : ranges) {
+        String[] parts  = range.trim().split("/");
+        byte[]   bytes  = getAddressBytes(parts[0]);
+        int      length = parts.length > 1 ? Integer.parseInt(parts[1]) : bytes.length * 8;
+
+        if (bytes.length == 4) ipv4.add(bytes, length);
+        else                   ipv6.add(bytes, length);
+      }
+
+      this.ipv4 = ipv4.build();
+      this.ipv6 = ipv6.build();
+    }
+
+    private static byte[] getAddressBytes(String address) {
+      byte[] bytes = InetAddresses.forString(address).getAddress();
+
+      // IPv4-mapped IPv6 addresses are parsed as IPv4, but are matched as IPv6.
+      if (bytes.length == 4 && address.indexOf(':') != -1) {
+        byte[] mapped = new byte[16];
+        mapped[10] = (byte)0xff;
+        mapped[11] = (byte)0xff;
+        System.arraycopy(bytes, 0, mapped, 12, 4);
+
+        return mapped;
+      }
+
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.auth;
+
+import java.util.Arrays;
+
+/**
+ * An immutable binary trie of address prefixes, stored as a flat array of
+ * child indexes.  Node 0 is the root, so a child index of 0 means "no child".
+ *
+ * Lookups walk one bit at a time and stop at the first node that ends a
+ * prefix, so they never allocate and take at most one step per prefix bit.
+ *
+ * @author Moxie Marlinspike
+ */
+public class IpPrefixTrie {
+
+  public static final int MATCH = -1;
+  public static final int MISS  = -2;
+
+  private static final int ROOT = 0;
+
+  private final int[]     children;
+  private final boolean[] terminal;
+
+  private IpPrefixTrie(int[] children, boolean[] terminal) {
+    this.children = children;
+    this.terminal = terminal;
+  }
+
+  /**
+   * @return MATCH if the empty prefix is in the trie, otherwise the root node.
+   */
+  public int root() {
+    return terminal[ROOT] ? MATCH : ROOT;
+  }
+
+  /**
+   * Follows the lowest {@code count} bits of {@code bits}, most significant first.
+   *
+   * @return MATCH if a prefix ended along the way, MISS if the path left the
+   *         trie, or otherwise the node reached.
+   */
+  public int descend(int node, long bits, int count) {
+    for (int i=count-1;i>=0;i--) {
+      node = children[(node << 1) | (int)((bits >>> i) & 1)];
+
+      if      (node == ROOT)    return MISS;
+      else if (terminal[node])  return MATCH;
+    }
+
+    return node;
+  }
+
+  public static class Builder {
+
+    private int[]     children = new int[64];
+    private boolean[] terminal = new boolean[32];
+    private int       nodes    = 1;
+
+    /**
+     * @param address      The network address, most significant byte first.
+     * @param prefixLength The number of leading bits of the address to match.
+     */
+    public Builder add(byte[] address, int prefixLength) {
+      if (prefixLength < 0 || prefixLength > address.length * 8) {
+        throw new IllegalArgumentException("Bad prefix length: " + prefixLength);
+      }
+
+      int node = ROOT;
+
+      for (int i=0;i<prefixLength && !terminal[node];i++) {
+        int bit   = (address[i / 8] >>> (7 - (i % 8))) & 1;
+        int index = (node << 1) | bit;
+
+        if (children[index] == ROOT) {
+          int child = allocate(); // May replace the children array.
+          children[index] = child;
+        }
+
+        node = children[index];
+      }
+
+      terminal[node] = true;
+      return this;
+    }
+
+    public IpPrefixTrie build() {
+      return new IpPrefixTrie(Arrays.copyOf(children, nodes * 2), Arrays.copyOf(terminal, nodes));
+    }
+
+    private int allocate() {
+      if (nodes == terminal.length) {
+        children = Arrays.copyOf(children, children.length * 2);
+        terminal = Arrays.copyOf(terminal, terminal.length * 2);
+      }
+
+      return nodes++;
+    }
+  }
+}
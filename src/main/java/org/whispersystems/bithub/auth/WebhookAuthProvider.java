@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.auth;
+
+import com.sun.jersey.api.core.HttpContext;
+import com.sun.jersey.api.model.Parameter;
+import com.sun.jersey.core.spi.component.ComponentContext;
+import com.sun.jersey.core.spi.component.ComponentScope;
+import com.sun.jersey.server.impl.inject.AbstractHttpContextInjectable;
+import com.sun.jersey.spi.inject.Injectable;
+import com.sun.jersey.spi.inject.InjectableProvider;
+import org.whispersystems.bithub.auth.GithubWebhookAuthenticator.Authentication;
+
+import io.dropwizard.auth.Auth;
+import io.dropwizard.auth.basic.BasicAuthProvider;
+
+/**
+ * Authenticates requests whose webhook signature the WebhookSignatureFilter
+ * has already verified, and falls back to HTTP basic auth for all others.
+ *
+ * @author Moxie Marlinspike
+ */
+public class WebhookAuthProvider implements InjectableProvider<Auth, Parameter> {
+
+  private final BasicAuthProvider<Authentication> basicAuthProvider;
+
+  public WebhookAuthProvider(GithubWebhookAuthenticator authenticator) {
+    this.basicAuthProvider = new BasicAuthProvider<>(authenticator, GithubWebhookAuthenticator.REALM);
+  }
+
+  @Override
+  public ComponentScope getScope() {
+    return ComponentScope.PerRequest;
+  }
+
+  @Override
+  public Injectable<?> getInjectable(ComponentContext context, Auth auth, Parameter parameter) {
+    if (!Authentication.class.equals(parameter.getParameterClass())) {
+      return null;
+    }
+
+    final AbstractHttpContextInjectable<?> basic =
+        (AbstractHttpContextInjectable<?>)basicAuthProvider.getInjectable(context, auth, parameter);
+
+    return new AbstractHttpContextInjectable<Object>() {
+      @Override
+      public Object getValue(HttpContext httpContext) {
+        if (Boolean.TRUE.equals(httpContext.getProperties().get(WebhookSignatureFilter.VERIFIED_PROPERTY))) {
+          return new Authentication();
+        }
+
+        return basic.getValue(httpContext);
+      }
+    };
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.auth;
+
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the body of each webhook request exactly once, before it reaches
+ * the resource.  Bodies larger than the configured limit are rejected without
+ * being decoded.  When a verifier is configured, the body's signature must
+ * also be valid, and requests that pass are marked as authenticated.
+ *
+ * The buffered body is handed back to Jersey as a stream over the same array,
+ * so form decoding doesn't copy it again.
+ *
+ * @author Moxie Marlinspike
+ */
+public class WebhookSignatureFilter implements ContainerRequestFilter {
+
+  public static final String VERIFIED_PROPERTY = WebhookSignatureFilter.class.getName() + ".verified";
+
+  private static final String WEBHOOK_PATH  = "v1/github/";
+  private static final int    INITIAL_CHUNK = 8192;
+
+  private final Logger logger = LoggerFactory.getLogger(WebhookSignatureFilter.class);
+
+  private final WebhookSignatureVerifier verifier;
+  private final int                      maxBodySize;
+
+  /**
+   * @param verifier The verifier that webhook signatures must pass, or null to
+   *                 only enforce the body size limit.
+   */
+  public WebhookSignatureFilter(WebhookSignatureVerifier verifier, int maxBodySize) {
+    this.verifier    = verifier;
+    this.maxBodySize = maxBodySize;
+  }
+
+  @Override
+  public ContainerRequest filter(ContainerRequest request) {
+    if (!request.getPath().startsWith(WEBHOOK_PATH)) {
+      return request;
+    }
+
+    String contentLength = request.getHeaderValue(HttpHeaders.CONTENT_LENGTH);
+    int    declared      = -1;
+
+    if (contentLength != null) {
+      try {
+        declared = Integer.parseInt(contentLength.trim());
+      } catch (NumberFormatException e) {
+        throw new WebApplicationException(Response.Status.BAD_REQUEST);
+      }
+
+      if (declared > maxBodySize) {
+        throw new WebApplicationException(Response.status(413).build());
+      }
+    }
+
+    byte[] body   = new byte[declared >= 0 ? declared : Math.min(INITIAL_CHUNK, maxBodySize)];
+    int    length = 0;
+
+    try {
+      InputStream in = request.getEntityInputStream();
+
+      while (true) {
+        if (length == body.length) {
+          if (declared >= 0) break;
+
+          if (length >= maxBodySize) {
+            if (in.read() == -1) break;
+            throw new WebApplicationException(Response.status(413).build());
+          }
+
+          body = Arrays.copyOf(body, (int)Math.min(body.length * 2L, maxBodySize));
+        }
+
+        int read = in.read(body, length, body.length - length);
+
+        if (read == -1) break;
+        else            length += read;
+      }
+    } catch (IOException e) {
+      throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+    }
+
+    if (verifier != null) {
+      if (!verifier.verify(body, 0, length, request.getHeaderValue(WebhookSignatureVerifier.HEADER))) {
+        logger.warn("Rejecting webhook with a missing or invalid signature");
+        throw new WebApplicationException(Response.Status.UNAUTHORIZED);
+      }
+
+      request.getProperties().put(VERIFIED_PROPERTY, Boolean.TRUE);
+    }
+
+    request.setEntityInputStream(new ByteArrayInputStream(body, 0, length));
+    return request;
+  }
+}
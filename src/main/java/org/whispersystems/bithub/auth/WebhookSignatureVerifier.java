@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.auth;
+
+import com.google.common.base.Charsets;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Verifies the X-Hub-Signature-256 HMAC that GitHub sends with each webhook.
+ *
+ * Each thread keeps its own initialized Mac and digest buffers, so that a
+ * verification costs one pass over the body and no allocation.  Digests are
+ * compared in constant time.
+ *
+ * @author Moxie Marlinspike
+ */
+public class WebhookSignatureVerifier {
+
+  public static final String HEADER = "X-Hub-Signature-256";
+
+  private static final String ALGORITHM     = "HmacSHA256";
+  private static final String PREFIX        = "sha256=";
+  private static final int    DIGEST_LENGTH = 32;
+
+  private final SecretKeySpec             key;
+  private final ThreadLocal<VerifierState> state = new ThreadLocal<VerifierState>() {
+    @Override
+    protected VerifierState initialValue() {
+      return new VerifierState(key);
+    }
+  };
+
+  public WebhookSignatureVerifier(String secret) {
+    this.key = new SecretKeySpec(secret.getBytes(Charsets.UTF_8), ALGORITHM);
+  }
+
+  /**
+   * @param signature The value of the X-Hub-Signature-256 header, or null.
+   * @return true if the signature is the HMAC of the given bytes.
+   */
+  public boolean verify(byte[] body, int offset, int length, String signature) {
+    if (signature == null || signature.length() != PREFIX.length() + DIGEST_LENGTH * 2 ||
+        !signature.startsWith(PREFIX))
+    {
+      return false;
+    }
+
+    VerifierState current = state.get();
+
+    if (!decodeHex(signature, PREFIX.length(), current.provided)) {
+      return false;
+    }
+
+    try {
+      current.mac.update(body, offset, length);
+      current.mac.doFinal(current.computed, 0);
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
+    }
+
+    int difference = 0;
+
+    for (int i=0;i<DIGEST_LENGTH;i++) {
+      difference |= current.provided[i] ^ current.computed[i];
+    }
+
+    return difference == 0;
+  }
+
+  private static boolean decodeHex(String hex, int offset, byte[] output) {
+    for (int i=0;i<output.length;i++) {
+      int high = Character.digit(hex.charAt(offset + i * 2), 16);
+      int low  = Character.digit(hex.charAt(offset + i * 2 + 1), 16);
+
+      if (high == -1 || low == -1) {
+        return false;
+      }
+
+      output[i] = (byte)((high << 4) | low);
+    }
+
+    return true;
+  }
+
+  private static class VerifierState {
+
+    private final Mac    mac;
+    private final byte[] provided = new byte[DIGEST_LENGTH];
+    private final byte[] computed = new byte[DIGEST_LENGTH];
+
+    private VerifierState(SecretKeySpec key) {
+      try {
+        this.mac = Mac.getInstance(ALGORITHM);
+        this.mac.init(key);
+      } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
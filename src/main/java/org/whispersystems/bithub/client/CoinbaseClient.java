@@ -17,6 +17,7 @@
 
 package org.whispersystems.bithub.client;
 
+import com.google.common.base.Joiner;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.UniformInterfaceException;
@@ -36,6 +37,7 @@ import org.whispersystems.bithub.entities.CoinbaseTransaction;
 import javax.ws.rs.core.MediaType;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -70,6 +72,24 @@ public class CoinbaseClient {
     }
   }
 
+  /**
+   * @param page  The page of the transaction history to fetch, starting at 1
+   *              with the most recent transactions.
+   * @param limit The number of transactions per page.
+   */
+  public CoinbseRecentTransactionsResponse getTransactions(int page, int limit) throws IOException {
+    try {
+      return client.resource(COINBASE_URL)
+                   .path(RECENT_TRANSACTIONS_PATH)
+                   .queryParam("api_key", apiKey)
+                   .queryParam("page", String.valueOf(page))
+                   .queryParam("limit", String.valueOf(limit))
+                   .get(CoinbseRecentTransactionsResponse.class);
+    } catch (UniformInterfaceException | ClientHandlerException e) {
+      throw new IOException(e);
+    }
+  }
+
   public BigDecimal getExchangeRate() throws IOException {
     try {
       WebResource resource = client.resource(COINBASE_URL)
@@ -87,13 +107,22 @@ public class CoinbaseClient {
 
   public void sendPayment(Author author, BigDecimal amount, String url)
       throws TransferFailedException
+  {
+    sendPayment(author, amount, Collections.singletonList(url));
+  }
+
+  /**
+   * Sends a single payment covering several commits, listing each of their URLs in the note.
+   */
+  public void sendPayment(Author author, BigDecimal amount, List<String> urls)
+      throws TransferFailedException
   {
     try {
       WebResource resource = client.resource(COINBASE_URL)
                                    .path(PAYMENT_PATH)
                                    .queryParam("api_key", apiKey);
 
-      String note = "Commit payment:\n__" + author.getUsername() + "__ " + url;
+      String note = "Commit payment:\n__" + author.getUsername() + "__ " + Joiner.on(' ').join(urls);
 
       BitcoinTransaction transaction = new BitcoinTransaction(author.getEmail(),
                                                               amount.toPlainString(),
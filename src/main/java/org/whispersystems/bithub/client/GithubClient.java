@@ -17,6 +17,14 @@
 
 package org.whispersystems.bithub.client;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
@@ -33,11 +41,20 @@ import org.whispersystems.bithub.entities.Commit;
 import org.whispersystems.bithub.entities.CommitComment;
 import org.whispersystems.bithub.entities.Repository;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+
+import static com.codahale.metrics.MetricRegistry.name;
 
 /**
  * Handles interaction with the GitHub API.
  *
+ * GETs are made conditional: the ETag and decoded entity of each response
+ * are remembered by path, and sent back as If-None-Match on the next
+ * request for it.  A 304 doesn't count against the rate limit, and is
+ * answered from the remembered entity.
+ *
  * @author Moxie Marlinspike
  */
 public class GithubClient {
@@ -47,65 +64,165 @@ public class GithubClient {
   private static final String COMMIT_PATH     = "/repos/%s/%s/git/commits/%s";
   private static final String REPOSITORY_PATH = "/repos/%s/%s";
 
-  private final Logger logger = LoggerFactory.getLogger(GithubClient.class);
+  private static final int VALIDATOR_CACHE_SIZE = 1000;
+
+  private final Logger       logger = LoggerFactory.getLogger(GithubClient.class);
+  private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private final String                         baseUrl;
+  private final String                         authorizationHeader;
+  private final Client                         client;
+  private final GithubRateLimiter              rateLimiter;
+  private final Cache<String, ValidatedEntity> validators;
 
-  private final String authorizationHeader;
-  private final Client client;
+  private final Meter   notModifiedMeter;
+  private final Meter   modifiedMeter;
+  private final Counter bytesSaved;
 
-  public GithubClient(String user, String token) {
+  public GithubClient(String user, String token, GithubRateLimiter rateLimiter,
+                      MetricRegistry metricRegistry)
+  {
+    this(GITHUB_URL, user, token, rateLimiter, metricRegistry);
+  }
+
+  /**
+   * @param baseUrl The API root to make requests against, such as a stub in tests.
+   */
+  public GithubClient(String baseUrl, String user, String token, GithubRateLimiter rateLimiter,
+                      MetricRegistry metricRegistry)
+  {
+    this.baseUrl             = baseUrl;
     this.authorizationHeader = getAuthorizationHeader(user, token);
     this.client              = Client.create(getClientConfig());
+    this.rateLimiter         = rateLimiter;
+    this.validators          = CacheBuilder.newBuilder()
+                                           .maximumSize(VALIDATOR_CACHE_SIZE)
+                                           .build();
+
+    this.notModifiedMeter = metricRegistry.meter(name(GithubClient.class, "not-modified"));
+    this.modifiedMeter    = metricRegistry.meter(name(GithubClient.class, "modified"));
+    this.bytesSaved       = metricRegistry.counter(name(GithubClient.class, "bytes-saved"));
+
+    metricRegistry.register(name(GithubClient.class, "not-modified-ratio"), new RatioGauge() {
+      @Override
+      protected Ratio getRatio() {
+        return Ratio.of(notModifiedMeter.getCount(), notModifiedMeter.getCount() + modifiedMeter.getCount());
+      }
+    });
   }
 
-  public String getCommitDescription(String commitUrl) {
+  public String getCommitDescription(String commitUrl) throws IOException {
     String[] commitUrlParts = commitUrl.split("/");
     String   owner          = commitUrlParts[commitUrlParts.length - 4];
     String   repository     = commitUrlParts[commitUrlParts.length - 3];
     String   commit         = commitUrlParts[commitUrlParts.length - 1];
 
-    String      path     = String.format(COMMIT_PATH, owner, repository, commit);
-    WebResource resource = client.resource(GITHUB_URL).path(path);
-    Commit      response = resource.type(MediaType.APPLICATION_JSON_TYPE)
-                                   .accept(MediaType.APPLICATION_JSON_TYPE)
-                                   .header("Authorization", authorizationHeader)
-                                   .get(Commit.class);
+    String path = String.format(COMMIT_PATH, owner, repository, commit);
 
-    return response.getMessage();
+    return get(path, Commit.class).getMessage();
   }
 
-  public Repository getRepository(String url) {
+  public Repository getRepository(String url) throws IOException {
     String[] urlParts = url.split("/");
     String   owner    = urlParts[urlParts.length - 2];
     String   name     = urlParts[urlParts.length - 1];
 
-    String      path     = String.format(REPOSITORY_PATH, owner, name);
-    WebResource resource = client.resource(GITHUB_URL).path(path);
+    String path = String.format(REPOSITORY_PATH, owner, name);
 
-    return resource.type(MediaType.APPLICATION_JSON_TYPE)
-                   .accept(MediaType.APPLICATION_JSON_TYPE)
-                   .header("Authorization", authorizationHeader)
-                   .get(Repository.class);
+    return get(path, Repository.class);
+  }
 
+  public void addCommitComment(Repository repository, Commit commit, String comment)
+      throws IOException
+  {
+    addCommitComment(repository.getOwner().getName(), repository.getName(), commit.getSha(), comment);
   }
 
-  public void addCommitComment(Repository repository, Commit commit, String comment) {
+  /**
+   * @throws IOException if GitHub could not be reached or didn't accept the comment.
+   */
+  public void addCommitComment(String owner, String repository, String sha, String comment)
+      throws IOException
+  {
+    String         path     = String.format(COMMENT_PATH, owner, repository, sha);
+    ClientResponse response = execute(GithubRateLimiter.Priority.PAYOUT, "POST", path,
+                                      new CommitComment(comment), null);
+
     try {
-      String path = String.format(COMMENT_PATH, repository.getOwner().getName(),
-                                  repository.getName(), commit.getSha());
+      if (response.getStatus() < 200 || response.getStatus() >=300) {
+        throw new IOException("Commit comment failed: " + response.getStatus());
+      }
+    } finally {
+      response.close();
+    }
+  }
 
-      WebResource    resource = client.resource(GITHUB_URL).path(path);
-      ClientResponse response = resource.type(MediaType.APPLICATION_JSON_TYPE)
-                                        .accept(MediaType.APPLICATION_JSON)
-                                        .header("Authorization", authorizationHeader)
-                                        .entity(new CommitComment(comment))
-                                        .post(ClientResponse.class);
+  private <T> T get(String path, Class<T> type) throws IOException {
+    ValidatedEntity cached   = validators.getIfPresent(path);
+    ClientResponse  response = execute(GithubRateLimiter.Priority.REFRESH, "GET", path, null,
+                                       cached != null ? cached.etag : null);
 
-      if (response.getStatus() < 200 || response.getStatus() >=300) {
-        logger.warn("Commit comment failed: " + response.getClientResponseStatus().getReasonPhrase());
+    try {
+      if (response.getStatus() == 304 && cached != null && type.isInstance(cached.entity)) {
+        notModifiedMeter.mark();
+        bytesSaved.inc(cached.length);
+        return type.cast(cached.entity);
+      }
+
+      if (response.getStatus() < 200 || response.getStatus() >= 300) {
+        throw new IOException("GitHub request failed: " + response.getStatus());
       }
 
+      byte[] body   = response.getEntity(byte[].class);
+      T      entity = mapper.readValue(body, type);
+      String etag   = response.getHeaders().getFirst(HttpHeaders.ETAG);
+
+      if (etag != null) {
+        validators.put(path, new ValidatedEntity(etag, entity, body.length));
+      }
+
+      modifiedMeter.mark();
+      return entity;
     } catch (UniformInterfaceException | ClientHandlerException e) {
-      logger.warn("Comment failed", e);
+      throw new IOException(e);
+    } finally {
+      response.close();
+    }
+  }
+
+  /**
+   * Makes a request once the rate limiter allows it, and queues it again
+   * for as long as GitHub throttles it.
+   */
+  private ClientResponse execute(GithubRateLimiter.Priority priority, String method,
+                                 String path, Object entity, String ifNoneMatch)
+      throws IOException
+  {
+    while (true) {
+      rateLimiter.acquire(priority);
+
+      try {
+        WebResource.Builder request = client.resource(baseUrl).path(path)
+                                            .type(MediaType.APPLICATION_JSON_TYPE)
+                                            .accept(MediaType.APPLICATION_JSON_TYPE)
+                                            .header("Authorization", authorizationHeader);
+
+        if (ifNoneMatch != null) {
+          request = request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+
+        ClientResponse response = entity == null ? request.method(method, ClientResponse.class)
+                                                 : request.method(method, ClientResponse.class, entity);
+
+        if (!rateLimiter.update(response)) {
+          return response;
+        }
+
+        response.close();
+        logger.info("Requeueing throttled request: " + method + " " + path);
+      } catch (UniformInterfaceException | ClientHandlerException e) {
+        throw new IOException(e);
+      }
     }
   }
 
@@ -120,4 +237,16 @@ public class GithubClient {
     return "Basic " + new String(Base64.encode(user + ":" + token));
   }
 
+  private static class ValidatedEntity {
+    private final String etag;
+    private final Object entity;
+    private final int    length;
+
+    private ValidatedEntity(String etag, Object entity, int length) {
+      this.etag   = etag;
+      this.entity = entity;
+      this.length = length;
+    }
+  }
+
 }
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.whispersystems.bithub.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.sun.jersey.api.client.ClientResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Schedules every GitHub API request against the token's rate limit.
+ *
+ * The limiter is a token bucket that is refilled when GitHub's rate limit
+ * window resets, and is corrected from the X-RateLimit headers of each
+ * response.  Callers block in acquire() until a request may be made,
+ * rather than failing: dashboard refreshes leave a reserve of requests
+ * for payout comments, and wait behind any payout that is queued.  When
+ * GitHub throttles a request anyway, all requests pause until the time
+ * it asks for, and the throttled request is retried.
+ *
+ * @author Moxie Marlinspike
+ */
+public class GithubRateLimiter {
+
+  public enum Priority {
+    PAYOUT, REFRESH
+  }
+
+  private static final long DEFAULT_LIMIT = 5000;
+  private static final long WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final long MAX_POLL      = 1000;
+
+  private final Logger logger = LoggerFactory.getLogger(GithubRateLimiter.class);
+
+  private final long    reserved;
+  private final long    throttleBackoff;
+  private final int[]   waiting = new int[Priority.values().length];
+  private final Timer[] waits   = new Timer[Priority.values().length];
+
+  private long limit     = DEFAULT_LIMIT;
+  private long remaining = DEFAULT_LIMIT;
+  private long resetAt;
+  private long pausedUntil;
+
+  /**
+   * @param reserved        Requests held back from dashboard refreshes for payouts.
+   * @param throttleBackoff How long to pause for when GitHub throttles a
+   *                        request without saying for how long.
+   */
+  public GithubRateLimiter(long reserved, long throttleBackoff, MetricRegistry metricRegistry) {
+    this.reserved        = reserved;
+    this.throttleBackoff = throttleBackoff;
+
+    for (Priority priority : Priority.values()) {
+      waits[priority.ordinal()] = metricRegistry.timer(name(GithubRateLimiter.class, "wait", priority.name().toLowerCase()));
+    }
+
+    metricRegistry.register(name(GithubRateLimiter.class, "remaining"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return getRemaining();
+      }
+    });
+
+    metricRegistry.register(name(GithubRateLimiter.class, "queued"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return getQueued();
+      }
+    });
+  }
+
+  /**
+   * Blocks until a request of the given priority may be made, and takes a
+   * token for it.
+   */
+  public void acquire(Priority priority) throws InterruptedIOException {
+    Timer.Context timer = waits[priority.ordinal()].time();
+
+    synchronized (this) {
+      waiting[priority.ordinal()]++;
+
+      try {
+        while (true) {
+          long now   = System.currentTimeMillis();
+          long delay = getDelay(priority, now);
+
+          if (delay <= 0) {
+            if (resetAt == 0) resetAt = now + WINDOW_MILLIS;
+            remaining--;
+            return;
+          }
+
+          wait(Math.min(delay, MAX_POLL));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for GitHub rate limit");
+      } finally {
+        waiting[priority.ordinal()]--;
+        timer.stop();
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Corrects the bucket from a response's rate limit headers.
+   *
+   * @return true if GitHub throttled the request, which should be retried.
+   */
+  public boolean update(ClientResponse response) {
+    MultivaluedMap<String, String> headers = response.getHeaders();
+
+    long    now        = System.currentTimeMillis();
+    long    reset      = parseLong(headers.getFirst("X-RateLimit-Reset"), 0) * 1000;
+    long    left       = parseLong(headers.getFirst("X-RateLimit-Remaining"), -1);
+    long    retryAfter = parseLong(headers.getFirst("Retry-After"), -1);
+    int     status     = response.getStatus();
+    boolean throttled  = status == 429 || (status == 403 && (retryAfter != -1 || left == 0));
+
+    synchronized (this) {
+      if (reset != 0 && left != -1) {
+        if (reset > resetAt) {
+          resetAt   = reset;
+          remaining = left;
+          limit     = parseLong(headers.getFirst("X-RateLimit-Limit"), limit);
+        } else {
+          remaining = Math.min(remaining, left);
+        }
+      }
+
+      if (throttled) {
+        if      (retryAfter != -1) pausedUntil = Math.max(pausedUntil, now + retryAfter * 1000);
+        else if (remaining <= 0)   pausedUntil = Math.max(pausedUntil, resetAt);
+        else                       pausedUntil = Math.max(pausedUntil, now + throttleBackoff);
+
+        logger.warn("GitHub throttled a request, pausing for " + (pausedUntil - now) + "ms");
+      }
+
+      notifyAll();
+    }
+
+    return throttled;
+  }
+
+  public synchronized long getRemaining() {
+    return remaining;
+  }
+
+  public synchronized int getQueued() {
+    int queued = 0;
+
+    for (int count : waiting) {
+      queued += count;
+    }
+
+    return queued;
+  }
+
+  private long getDelay(Priority priority, long now) {
+    if (resetAt != 0 && now >= resetAt) {
+      remaining = limit;
+      resetAt   = 0;
+    }
+
+    if (now < pausedUntil) {
+      return pausedUntil - now;
+    }
+
+    long floor = priority == Priority.PAYOUT ? 0 : reserved;
+
+    if (remaining <= floor) {
+      return resetAt != 0 ? resetAt - now : MAX_POLL;
+    }
+
+    for (int i=0;i<priority.ordinal();i++) {
+      if (waiting[i] > 0) return MAX_POLL;
+    }
+
+    return 0;
+  }
+
+  private static long parseLong(String value, long defaultValue) {
+    if (value == null) return defaultValue;
+
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.entities.Repository;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decodes GitHub PushEvent payloads with a streaming parser, binding only
+ * the fields that payouts need and skipping everything else (including the
+ * potentially large added/removed/modified file lists of every commit).
+ *
+ * The parser factory and validator are shared, since both are thread safe
+ * and expensive to construct.
+ *
+ * @author Moxie Marlinspike
+ */
+public class PushEventCodec {
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+  private static final Validator   validator   = Validation.buildDefaultValidatorFactory().getValidator();
+
+  private PushEventCodec() {}
+
+  public static PushEvent decode(String payload) throws IOException {
+    if (payload == null) {
+      throw new IOException("Empty payload");
+    }
+
+    try (JsonParser parser = jsonFactory.createParser(payload)) {
+      expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+      PushEvent event = parsePushEvent(parser);
+      validate(event);
+
+      return event;
+    }
+  }
+
+  private static PushEvent parsePushEvent(JsonParser parser) throws IOException {
+    String       head       = null;
+    String       after      = null;
+    String       ref        = null;
+    int          size       = 0;
+    List<Commit> commits    = null;
+    Repository   repository = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String    field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+
+      switch (field) {
+        case "head":       head       = text(parser, value);            break;
+        case "after":      after      = text(parser, value);            break;
+        case "ref":        ref        = text(parser, value);            break;
+        case "size":       size       = parser.getValueAsInt();         break;
+        case "commits":    commits    = parseCommits(parser, value);    break;
+        case "repository": repository = parseRepository(parser, value); break;
+        default:           parser.skipChildren();
+      }
+    }
+
+    return new PushEvent(head != null ? head : after, ref, size, commits, repository);
+  }
+
+  private static List<Commit> parseCommits(JsonParser parser, JsonToken token) throws IOException {
+    if (token == JsonToken.VALUE_NULL) return null;
+    expect(parser, token, JsonToken.START_ARRAY);
+
+    List<Commit> commits = new ArrayList<>();
+
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      commits.add(parseCommit(parser));
+    }
+
+    return commits;
+  }
+
+  private static Commit parseCommit(JsonParser parser) throws IOException {
+    String  id       = null;
+    String  message  = null;
+    String  url      = null;
+    boolean distinct = false;
+    Author  author   = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String    field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+
+      switch (field) {
+        case "id":       id       = text(parser, value);           break;
+        case "message":  message  = text(parser, value);           break;
+        case "url":      url      = text(parser, value);           break;
+        case "distinct": distinct = value == JsonToken.VALUE_TRUE; break;
+        case "author":   author   = parseAuthor(parser, value);    break;
+        default:         parser.skipChildren();
+      }
+    }
+
+    if (author == null || author.getEmail() == null) {
+      throw new JsonParseException("Commit without author email: " + id, parser.getCurrentLocation());
+    }
+
+    return new Commit(id, message, author, url, distinct);
+  }
+
+  private static Repository parseRepository(JsonParser parser, JsonToken token) throws IOException {
+    if (token == JsonToken.VALUE_NULL) return null;
+    expect(parser, token, JsonToken.START_OBJECT);
+
+    String url         = null;
+    String name        = null;
+    String description = null;
+    Author owner       = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String    field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+
+      switch (field) {
+        case "url":         url         = text(parser, value);        break;
+        case "name":        name        = text(parser, value);        break;
+        case "description": description = text(parser, value);        break;
+        case "owner":       owner       = parseAuthor(parser, value); break;
+        default:            parser.skipChildren();
+      }
+    }
+
+    if (url == null) {
+      throw new JsonParseException("Repository without url", parser.getCurrentLocation());
+    }
+
+    return new Repository(url, owner, name, description);
+  }
+
+  private static Author parseAuthor(JsonParser parser, JsonToken token) throws IOException {
+    if (token == JsonToken.VALUE_NULL) return null;
+    expect(parser, token, JsonToken.START_OBJECT);
+
+    String name     = null;
+    String email    = null;
+    String username = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String    field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+
+      switch (field) {
+        case "name":     name     = text(parser, value); break;
+        case "email":    email    = text(parser, value); break;
+        case "username": username = text(parser, value); break;
+        default:         parser.skipChildren();
+      }
+    }
+
+    return new Author(name, email, username);
+  }
+
+  private static String text(JsonParser parser, JsonToken token) throws IOException {
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+
+    if (!token.isScalarValue()) {
+      throw new JsonParseException("Expected a scalar but found " + token, parser.getCurrentLocation());
+    }
+
+    return parser.getText();
+  }
+
+  private static void expect(JsonParser parser, JsonToken actual, JsonToken expected)
+      throws JsonParseException
+  {
+    if (actual != expected) {
+      throw new JsonParseException("Expected " + expected + " but found " + actual,
+                                   parser.getCurrentLocation());
+    }
+  }
+
+  private static void validate(PushEvent event) throws IOException {
+    Set<ConstraintViolation<PushEvent>> violations = validator.validate(event);
+
+    if (!violations.isEmpty()) {
+      ConstraintViolation<PushEvent> violation = violations.iterator().next();
+      throw new IOException("Invalid push event: " + violation.getPropertyPath() + " " +
+                            violation.getMessage());
+    }
+  }
+}
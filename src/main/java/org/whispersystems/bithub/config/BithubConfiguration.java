@@ -22,6 +22,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.Valid;
 import java.math.BigDecimal;
 
 public class BithubConfiguration {
@@ -30,8 +31,80 @@ public class BithubConfiguration {
   @NotEmpty
   private String payout = "0.02";
 
+  @JsonProperty
+  @Valid
+  private IntakeConfiguration intake = new IntakeConfiguration();
+
+  @JsonProperty
+  @Valid
+  private JournalConfiguration journal = new JournalConfiguration();
+
+  @JsonProperty
+  @Valid
+  private DeduplicationConfiguration deduplication = new DeduplicationConfiguration();
+
+  @JsonProperty
+  @Valid
+  private BatchingConfiguration batching = new BatchingConfiguration();
+
+  @JsonProperty
+  @Valid
+  private CommentConfiguration comments = new CommentConfiguration();
+
+  @JsonProperty
+  @Valid
+  private RetryConfiguration retries = new RetryConfiguration();
+
+  @JsonProperty
+  @Valid
+  private PaidCommitConfiguration paidCommits = new PaidCommitConfiguration();
+
+  @JsonProperty
+  @Valid
+  private CacheConfiguration cache = new CacheConfiguration();
+
+  @JsonProperty
+  @Valid
+  private AdminConfiguration admin = new AdminConfiguration();
+
   public BigDecimal getPayoutRate() {
     return new BigDecimal(payout);
   }
 
+  public IntakeConfiguration getIntakeConfiguration() {
+    return intake;
+  }
+
+  public JournalConfiguration getJournalConfiguration() {
+    return journal;
+  }
+
+  public DeduplicationConfiguration getDeduplicationConfiguration() {
+    return deduplication;
+  }
+
+  public BatchingConfiguration getBatchingConfiguration() {
+    return batching;
+  }
+
+  public CommentConfiguration getCommentConfiguration() {
+    return comments;
+  }
+
+  public RetryConfiguration getRetryConfiguration() {
+    return retries;
+  }
+
+  public PaidCommitConfiguration getPaidCommitConfiguration() {
+    return paidCommits;
+  }
+
+  public CacheConfiguration getCacheConfiguration() {
+    return cache;
+  }
+
+  public AdminConfiguration getAdminConfiguration() {
+    return admin;
+  }
+
 }
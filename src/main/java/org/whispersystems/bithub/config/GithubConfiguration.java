@@ -53,6 +53,11 @@ public class GithubConfiguration {
   @JsonProperty
   private WebhookConfiguration webhook;
 
+  @Valid
+  @NotNull
+  @JsonProperty
+  private RateLimitConfiguration rateLimit = new RateLimitConfiguration();
+
   public String getUser() {
     return user;
   }
@@ -81,4 +86,8 @@ public class GithubConfiguration {
   public WebhookConfiguration getWebhookConfiguration() {
     return webhook;
   }
+
+  public RateLimitConfiguration getRateLimitConfiguration() {
+    return rateLimit;
+  }
 }
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+public class PaidCommitConfiguration {
+
+  @JsonProperty
+  private String directory;
+
+  @JsonProperty
+  @Min(1)
+  private int expectedCommits = 1000000;
+
+  public boolean isPersistent() {
+    return directory != null && !directory.trim().isEmpty();
+  }
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  public int getExpectedCommits() {
+    return expectedCommits;
+  }
+}
@@ -3,6 +3,11 @@ package org.whispersystems.bithub.config;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.constraints.NotNull;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class RepositoryConfiguration {
 
   @JsonProperty
@@ -13,6 +18,22 @@ public class RepositoryConfiguration {
   @NotEmpty
   private String mode = "MONEYMONEY";
 
+  @JsonProperty
+  @NotNull
+  private List<String> optInKeywords = Arrays.asList("MONEYMONEY");
+
+  @JsonProperty
+  @NotNull
+  private List<String> optOutKeywords = Arrays.asList("FREEBIE");
+
+  @JsonProperty
+  @NotNull
+  private List<String> skipPrefixes = Arrays.asList("Merge");
+
+  @JsonProperty
+  @NotNull
+  private List<String> excludedAuthors = Collections.emptyList();
+
   public RepositoryConfiguration(String url, String mode) {
     this.url  = url;
     this.mode = mode;
@@ -31,4 +52,20 @@ public class RepositoryConfiguration {
   public String getMode() {
     return mode;
   }
+
+  public List<String> getOptInKeywords() {
+    return optInKeywords;
+  }
+
+  public List<String> getOptOutKeywords() {
+    return optOutKeywords;
+  }
+
+  public List<String> getSkipPrefixes() {
+    return skipPrefixes;
+  }
+
+  public List<String> getExcludedAuthors() {
+    return excludedAuthors;
+  }
 }
@@ -1,10 +1,23 @@
 package org.whispersystems.bithub.config;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
+import org.whispersystems.bithub.auth.IpAllowList;
+
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
 
 public class WebhookConfiguration {
 
+  public static final String MODE_BASIC     = "BASIC";
+  public static final String MODE_SIGNATURE = "SIGNATURE";
+
   @JsonProperty
   @NotEmpty
   private String username = "bithub";
@@ -13,7 +26,53 @@ public class WebhookConfiguration {
   @NotEmpty
   private String password;
 
+  @JsonProperty
+  @NotEmpty
+  private String mode = MODE_BASIC;
+
+  @JsonProperty
+  private String secret;
+
+  @JsonProperty
+  @NotNull
+  private Size maxBodySize = Size.megabytes(5);
+
+  @JsonProperty
+  @NotNull
+  private List<String> ranges = IpAllowList.GITHUB_HOOK_RANGES;
+
+  @JsonProperty
+  private String metaFile;
+
+  @JsonProperty
+  @NotNull
+  private Duration metaRefresh = Duration.minutes(10);
+
+  @JsonProperty
+  @Min(1)
+  private int trustedProxies = 1;
+
   public String getUsername() { return username; }
 
   public String getPassword() { return password; }
+
+  public boolean isSignatureRequired() { return MODE_SIGNATURE.equalsIgnoreCase(mode); }
+
+  public String getSecret() { return secret; }
+
+  public Size getMaxBodySize() { return maxBodySize; }
+
+  public List<String> getRanges() { return ranges; }
+
+  public String getMetaFile() { return metaFile; }
+
+  public Duration getMetaRefresh() { return metaRefresh; }
+
+  public int getTrustedProxies() { return trustedProxies; }
+
+  @JsonIgnore
+  @AssertTrue(message = "SIGNATURE mode requires a secret")
+  public boolean isSecretConfigured() {
+    return !isSignatureRequired() || (secret != null && !secret.isEmpty());
+  }
 }
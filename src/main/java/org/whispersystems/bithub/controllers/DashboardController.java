@@ -2,6 +2,7 @@ package org.whispersystems.bithub.controllers;
 
 import com.codahale.metrics.annotation.Timed;
 import org.whispersystems.bithub.storage.CacheManager;
+import org.whispersystems.bithub.storage.CacheSnapshot;
 import org.whispersystems.bithub.views.DashboardView;
 
 import javax.ws.rs.GET;
@@ -30,10 +31,12 @@ public class DashboardController {
   @GET
   @Produces(MediaType.TEXT_HTML)
   public DashboardView getDashboard() {
+    CacheSnapshot snapshot = cacheManager.getSnapshot();
+
     return new DashboardView(organizationName, donationUrl,
-                             cacheManager.getCurrentPaymentAmount(),
-                             cacheManager.getRepositories(),
-                             cacheManager.getRecentTransactions());
+                             snapshot.getPayment(),
+                             snapshot.getRepositories(),
+                             snapshot.getTransactions());
   }
 
 }
@@ -18,37 +18,28 @@
 package org.whispersystems.bithub.controllers;
 
 import com.codahale.metrics.annotation.Timed;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.net.util.SubnetUtils;
-import org.apache.commons.net.util.SubnetUtils.SubnetInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.bithub.auth.GithubWebhookAuthenticator.Authentication;
-import org.whispersystems.bithub.client.CoinbaseClient;
-import org.whispersystems.bithub.client.GithubClient;
-import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.auth.IpAllowList;
+import org.whispersystems.bithub.codec.PushEventCodec;
 import org.whispersystems.bithub.config.RepositoryConfiguration;
-import org.whispersystems.bithub.entities.Commit;
 import org.whispersystems.bithub.entities.PushEvent;
-import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.PayoutProcessor;
+import org.whispersystems.bithub.payouts.PushEventDeduplicator;
+import org.whispersystems.bithub.payouts.PushEventQueue;
+import org.whispersystems.bithub.storage.PushEventJournal;
 
-import javax.validation.Validation;
-import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import io.dropwizard.auth.Auth;
@@ -62,30 +53,48 @@ import io.dropwizard.auth.Auth;
 @Path("/v1/github")
 public class GithubController {
 
-  private static final String GITHUB_WEBOOK_CIDR = "192.30.252.0/22";
-  private static final String MASTER_REF         = "refs/heads/master";
+  private static final String MASTER_REF = "refs/heads/master";
 
-  private final Logger     logger         = LoggerFactory.getLogger(GithubController.class);
-  private final SubnetInfo trustedNetwork = new SubnetUtils(GITHUB_WEBOOK_CIDR).getInfo();
+  private final Logger logger = LoggerFactory.getLogger(GithubController.class);
 
-  private final CoinbaseClient      coinbaseClient;
-  private final GithubClient        githubClient;
-  private final Map<String, String> repositories;
-  private final BigDecimal          payoutRate;
+  private final Set<String>           repositories;
+  private final PayoutProcessor       payoutProcessor;
+  private final PushEventQueue        pushEventQueue;
+  private final PushEventJournal      journal;
+  private final PushEventDeduplicator deduplicator;
+  private final IpAllowList           allowList;
 
   public GithubController(List<RepositoryConfiguration> repositories,
-                          GithubClient githubClient,
-                          CoinbaseClient coinbaseClient,
-                          BigDecimal payoutRate)
+                          PayoutProcessor payoutProcessor,
+                          PushEventQueue pushEventQueue)
   {
-    this.coinbaseClient = coinbaseClient;
-    this.githubClient   = githubClient;
-    this.repositories   = new HashMap<>();
-    this.payoutRate     = payoutRate;
+    this(repositories, payoutProcessor, pushEventQueue, null, null,
+         new IpAllowList(IpAllowList.GITHUB_HOOK_RANGES));
+  }
+
+  /**
+   * @param pushEventQueue The queue to hand accepted events to, or null
+   *                       to process them synchronously on the request thread.
+   * @param journal        The journal to durably record accepted events in, or null.
+   * @param deduplicator   The filter for webhook redeliveries, or null.
+   * @param allowList      The addresses webhooks are accepted from.
+   */
+  public GithubController(List<RepositoryConfiguration> repositories,
+                          PayoutProcessor payoutProcessor,
+                          PushEventQueue pushEventQueue,
+                          PushEventJournal journal,
+                          PushEventDeduplicator deduplicator,
+                          IpAllowList allowList)
+  {
+    this.payoutProcessor = payoutProcessor;
+    this.pushEventQueue  = pushEventQueue;
+    this.journal         = journal;
+    this.deduplicator    = deduplicator;
+    this.allowList       = allowList;
+    this.repositories    = new HashSet<>();
 
     for (RepositoryConfiguration repository : repositories) {
-      this.repositories.put(repository.getUrl().toLowerCase(),
-                            repository.getMode().toUpperCase());
+      this.repositories.add(repository.getUrl().toLowerCase());
     }
   }
 
@@ -93,106 +102,53 @@ public class GithubController {
   @POST
   @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
   @Path("/commits/")
-  public void handleCommits(@Auth Authentication auth,
-                            @HeaderParam("X-Forwarded-For") String clientIp,
-                            @FormParam("payload") String eventString)
+  public Response handleCommits(@Auth Authentication auth,
+                                @HeaderParam("X-Forwarded-For") String clientIp,
+                                @HeaderParam("X-GitHub-Delivery") String deliveryId,
+                                @FormParam("payload") String eventString)
       throws IOException, UnauthorizedHookException
   {
     authenticate(clientIp);
-    PushEvent event = getEventFromPayload(eventString);
+    PushEvent event = PushEventCodec.decode(eventString);
 
-    if (!repositories.containsKey(event.getRepository().getUrl().toLowerCase())) {
+    if (!repositories.contains(event.getRepository().getUrl().toLowerCase())) {
       throw new UnauthorizedHookException("Not a valid repository: " +
                                           event.getRepository().getUrl());
     }
 
     if (!event.getRef().equals(MASTER_REF)) {
       logger.info("Not a push to master: " + event.getRef());
-      return;
+      return Response.noContent().build();
     }
 
-    Repository   repository   = event.getRepository();
-    String       defaultMode  = repositories.get(repository.getUrl().toLowerCase());
-    List<Commit> commits      = getQualifyingCommits(event, defaultMode);
-    BigDecimal   balance      = coinbaseClient.getAccountBalance();
-    BigDecimal   exchangeRate = coinbaseClient.getExchangeRate();
-
-    logger.info("Retrieved balance: " + balance.toPlainString());
-
-    sendPaymentsFor(repository, commits, balance, exchangeRate);
-  }
-
-
-  private void sendPaymentsFor(Repository repository, List<Commit> commits,
-                               BigDecimal balance, BigDecimal exchangeRate)
-  {
-    for (Commit commit : commits) {
-      try {
-        BigDecimal payout = balance.multiply(payoutRate);
-
-        if (isViablePaymentAmount(payout)) {
-          coinbaseClient.sendPayment(commit.getAuthor(), payout, commit.getUrl());
-        }
-
-        balance = balance.subtract(payout);
-
-        githubClient.addCommitComment(repository, commit,
-                                      getCommitCommentStringForPayment(payout, exchangeRate));
-      } catch (TransferFailedException e) {
-        logger.warn("Transfer failed", e);
-      }
+    if (deduplicator != null && deduplicator.isDuplicate(deliveryId, event)) {
+      logger.info("Dropping redelivered push: " + deliveryId + ", " + event.getHead());
+      return Response.noContent().build();
     }
-  }
-
-  private PushEvent getEventFromPayload(String payload) throws IOException {
-    ObjectMapper     objectMapper = new ObjectMapper();
-    PushEvent        event        = objectMapper.readValue(payload, PushEvent.class);
-    ValidatorFactory factory      = Validation.buildDefaultValidatorFactory();
-    Validator        validator    = factory.getValidator();
 
-    validator.validate(event);
-    return event;
-  }
-
-  private List<Commit> getQualifyingCommits(PushEvent event, String defaultMode) {
-    List<Commit> commits = new LinkedList<>();
-    Set<String>  emails  = new HashSet<>();
-
-    for (Commit commit : event.getCommits()) {
-      logger.info(commit.getUrl());
-      if (!emails.contains(commit.getAuthor().getEmail())) {
-        logger.info("Unique author: "+ commit.getAuthor().getEmail());
-        if (isViableMessage(commit.getMessage(), defaultMode)) {
-          logger.info("Not a merge commit or freebie...");
-
-          emails.add(commit.getAuthor().getEmail());
-          commits.add(commit);
-        }
-      }
+    try {
+      return dispatch(eventString, event);
+    } catch (IOException | RuntimeException e) {
+      if (deduplicator != null) deduplicator.forget(deliveryId, event);
+      throw e;
     }
-
-    return commits;
   }
 
-  private boolean isViableMessage(String message, String defaultMode) {
-    if (message == null || message.startsWith("Merge"))
-      return false;
+  private Response dispatch(String eventString, PushEvent event) throws IOException {
+    PushEventJournal.Entry entry = journal != null ? journal.append(eventString) : null;
 
-    return (!message.contains("FREEBIE") && defaultMode.equals("MONEYMONEY")) ||
-           (message.contains("MONEYMONEY") && defaultMode.equals("FREEBIE"));
-  }
-
-  private boolean isViablePaymentAmount(BigDecimal payment) {
-    return payment.compareTo(new BigDecimal(0)) == 1;
-  }
+    if (pushEventQueue == null) {
+      payoutProcessor.process(event, entry);
+      return Response.noContent().build();
+    }
 
-  private String getCommitCommentStringForPayment(BigDecimal payment, BigDecimal exchangeRate) {
-    if (isViablePaymentAmount(payment)) {
-      BigDecimal paymentUsd = payment.multiply(exchangeRate).setScale(2, RoundingMode.CEILING);
-      return "Thanks! BitHub has sent payment of  $" + paymentUsd.toPlainString() + "USD for this commit.";
-    } else {
-      return "Thanks! Unfortunately our BitHub balance is $0.00, so no payout can be made.";
+    if (!pushEventQueue.enqueue(event, entry)) {
+      logger.warn("Push event queue is full, rejecting: " + event.getRepository().getUrl());
+      if (entry != null) journal.markCompleted(entry);
+      throw new IOException("Push event queue is full");
     }
+
+    return Response.status(Response.Status.ACCEPTED).build();
   }
 
   private void authenticate(String clientIp) throws UnauthorizedHookException {
@@ -200,7 +156,7 @@ public class GithubController {
       throw new UnauthorizedHookException("No X-Forwarded-For!");
     }
 
-    if (!trustedNetwork.isInRange(clientIp)) {
+    if (!allowList.isAllowed(clientIp)) {
       throw new UnauthorizedHookException("Untrusted IP: " + clientIp);
     }
  }
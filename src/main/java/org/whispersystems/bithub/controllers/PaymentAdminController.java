@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.whispersystems.bithub.controllers;
+
+import com.codahale.metrics.annotation.Timed;
+import org.whispersystems.bithub.auth.AdminAuthenticator.Administrator;
+import org.whispersystems.bithub.entities.FailedPayments;
+import org.whispersystems.bithub.payouts.PaymentRetryQueue;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+
+import io.dropwizard.auth.Auth;
+
+/**
+ * Handles administrative API calls for payouts that ran out of retries.
+ * These move money, so they require the admin credentials rather than
+ * the webhook ones.
+ *
+ * @author Moxie Marlinspike
+ */
+@Path("/v1/admin/payments")
+public class PaymentAdminController {
+
+  private final PaymentRetryQueue retryQueue;
+
+  public PaymentAdminController(PaymentRetryQueue retryQueue) {
+    this.retryQueue = retryQueue;
+  }
+
+  @Timed
+  @GET
+  @Path("/dead")
+  @Produces(MediaType.APPLICATION_JSON)
+  public FailedPayments getDeadLetters(@Auth Administrator admin) {
+    return new FailedPayments(retryQueue.getDeadLetters());
+  }
+
+  @Timed
+  @POST
+  @Path("/dead/{id}/replay")
+  public Response replay(@Auth Administrator admin, @PathParam("id") String id)
+      throws IOException
+  {
+    if (!retryQueue.replay(id)) {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
+
+    return Response.noContent().build();
+  }
+
+  @Timed
+  @DELETE
+  @Path("/dead/{id}")
+  public Response discard(@Auth Administrator admin, @PathParam("id") String id) {
+    if (!retryQueue.discard(id)) {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
+
+    return Response.noContent().build();
+  }
+}
@@ -26,6 +26,7 @@ import org.whispersystems.bithub.entities.Repository;
 import org.whispersystems.bithub.entities.Transaction;
 import org.whispersystems.bithub.entities.Transactions;
 import org.whispersystems.bithub.storage.CacheManager;
+import org.whispersystems.bithub.storage.CacheSnapshot;
 import org.whispersystems.bithub.storage.CurrentPayment;
 import org.whispersystems.bithub.views.TransactionsView;
 
@@ -34,7 +35,10 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.util.LinkedList;
@@ -66,15 +70,24 @@ public class StatusController {
   @Timed
   @GET
   @Path("/transactions")
-  public Response getTransactions(@QueryParam("format") @DefaultValue("html") String format)
+  public Response getTransactions(@QueryParam("format") @DefaultValue("html") String format,
+                                  @Context Request request)
         throws IOException
   {
-    List<Transaction> recentTransactions = coinbaseManager.getRecentTransactions();
+    CacheSnapshot            snapshot    = coinbaseManager.getSnapshot();
+    EntityTag                tag         = getEntityTag(snapshot, format);
+    Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+
+    if (notModified != null) {
+      return notModified.build();
+    }
+
+    List<Transaction> recentTransactions = snapshot.getTransactions();
 
     switch (format) {
-      case "html": return Response.ok(new TransactionsView(recentTransactions), MediaType.TEXT_HTML_TYPE).build();
+      case "html": return Response.ok(new TransactionsView(recentTransactions), MediaType.TEXT_HTML_TYPE).tag(tag).build();
       case "json":
-      default:     return Response.ok(new Transactions(recentTransactions), MediaType.APPLICATION_JSON_TYPE).build();
+      default:     return Response.ok(new Transactions(recentTransactions), MediaType.APPLICATION_JSON_TYPE).tag(tag).build();
     }
   }
 
@@ -97,18 +110,35 @@ public class StatusController {
   @GET
   @Path("/payment/commit")
   @CacheControl(noCache = true)
-  public Response getCurrentCommitPrice(@QueryParam("format") @DefaultValue("png") String format)
+  public Response getCurrentCommitPrice(@QueryParam("format") @DefaultValue("png") String format,
+                                        @Context Request request)
       throws IOException
   {
-    CurrentPayment currentPayment = coinbaseManager.getCurrentPaymentAmount();
+    CacheSnapshot            snapshot    = coinbaseManager.getSnapshot();
+    EntityTag                tag         = getEntityTag(snapshot, format);
+    Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+
+    if (notModified != null) {
+      return notModified.build();
+    }
+
+    CurrentPayment currentPayment = snapshot.getPayment();
 
     switch (format) {
       case "json":
-        return Response.ok(currentPayment.getEntity(), MediaType.APPLICATION_JSON_TYPE).build();
+        return Response.ok(currentPayment.getEntity(), MediaType.APPLICATION_JSON_TYPE).tag(tag).build();
       case "png_small":
-        return Response.ok(currentPayment.getSmallBadge(), "image/png").build();
+        return Response.ok(currentPayment.getSmallBadge(), "image/png").tag(tag).build();
       default:
-        return Response.ok(currentPayment.getBadge(), "image/png").build();
+        return Response.ok(currentPayment.getBadge(), "image/png").tag(tag).build();
     }
   }
+
+  /**
+   * Tags a response with the snapshot it was built from, so that clients can
+   * revalidate it with If-None-Match.
+   */
+  private EntityTag getEntityTag(CacheSnapshot snapshot, String format) {
+    return new EntityTag(snapshot.getTag() + "-" + format);
+  }
 }
@@ -21,6 +21,8 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import java.util.Objects;
+
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Author {
 
@@ -34,6 +36,14 @@ public class Author {
   @JsonProperty
   private String username;
 
+  public Author() {}
+
+  public Author(String name, String email, String username) {
+    this.name     = name;
+    this.email    = email;
+    this.username = username;
+  }
+
   public String getName() {
     return name;
   }
@@ -45,4 +55,21 @@ public class Author {
   public String getUsername() {
     return username;
   }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other)              return true;
+    if (!(other instanceof Author)) return false;
+
+    Author that = (Author)other;
+
+    return Objects.equals(name, that.name) &&
+           Objects.equals(email, that.email) &&
+           Objects.equals(username, that.username);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(name, email, username);
+  }
 }
@@ -17,16 +17,20 @@
 
 package org.whispersystems.bithub.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
+import org.whispersystems.bithub.util.Money;
 
 import javax.validation.constraints.NotNull;
-import java.math.BigDecimal;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class CoinbaseTransaction {
 
+  @JsonProperty
+  private String id;
+
   @JsonProperty(value = "created_at")
   @NotEmpty
   private String createdTime;
@@ -41,6 +45,13 @@ public class CoinbaseTransaction {
   @JsonProperty
   private String notes;
 
+  private long             satoshis;
+  private volatile boolean satoshisParsed;
+
+  public String getId() {
+    return id;
+  }
+
   public String getCreatedTime() {
     return createdTime;
   }
@@ -57,9 +68,21 @@ public class CoinbaseTransaction {
     return notes;
   }
 
+  /**
+   * @return The amount in satoshis, parsed once on first use.
+   */
+  @JsonIgnore
+  public long getSatoshis() {
+    if (!satoshisParsed) {
+      satoshis       = Money.parseSatoshis(getAmount());
+      satoshisParsed = true;
+    }
+
+    return satoshis;
+  }
+
   public boolean isSentTransaction() {
-    BigDecimal amount = new BigDecimal(getAmount());
-    return amount.compareTo(new BigDecimal(0.0)) < 0;
+    return getSatoshis() < 0;
   }
 
 }
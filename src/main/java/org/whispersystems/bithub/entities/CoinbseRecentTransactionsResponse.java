@@ -31,6 +31,9 @@ public class CoinbseRecentTransactionsResponse {
   @NotNull
   private List<CoinbaseTransactionWrapper> transactions;
 
+  @JsonProperty(value = "num_pages")
+  private int numPages;
+
   public List<CoinbaseTransaction> getTransactions() {
     List<CoinbaseTransaction> rawTransactions = new LinkedList<CoinbaseTransaction>();
 
@@ -40,4 +43,8 @@ public class CoinbseRecentTransactionsResponse {
 
     return rawTransactions;
   }
+
+  public int getNumPages() {
+    return numPages;
+  }
 }
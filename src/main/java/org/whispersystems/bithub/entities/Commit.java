@@ -41,6 +41,16 @@ public class Commit {
   @JsonProperty
   private boolean distinct;
 
+  public Commit() {}
+
+  public Commit(String id, String message, Author author, String url, boolean distinct) {
+    this.id       = id;
+    this.message  = message;
+    this.author   = author;
+    this.url      = url;
+    this.distinct = distinct;
+  }
+
   public String getSha() {
     return id;
   }
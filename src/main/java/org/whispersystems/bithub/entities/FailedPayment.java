@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.whispersystems.bithub.entities;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A commit payout whose transfer failed, along with the comment to post
+ * once it has been sent.
+ *
+ * @author Moxie Marlinspike
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class FailedPayment {
+
+  @JsonProperty
+  private String id;
+
+  @JsonProperty
+  private String owner;
+
+  @JsonProperty
+  private String repository;
+
+  @JsonProperty
+  private Commit commit;
+
+  @JsonProperty
+  private long satoshis;
+
+  @JsonProperty
+  private String comment;
+
+  @JsonProperty
+  private int attempts;
+
+  @JsonProperty
+  private String lastError;
+
+  public FailedPayment() {}
+
+  public FailedPayment(String id, String owner, String repository, Commit commit,
+                       long satoshis, String comment)
+  {
+    this.id         = id;
+    this.owner      = owner;
+    this.repository = repository;
+    this.commit     = commit;
+    this.satoshis   = satoshis;
+    this.comment    = comment;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getOwner() {
+    return owner;
+  }
+
+  public String getRepository() {
+    return repository;
+  }
+
+  public Commit getCommit() {
+    return commit;
+  }
+
+  public long getSatoshis() {
+    return satoshis;
+  }
+
+  public String getComment() {
+    return comment;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  public void recordFailure(String error) {
+    this.attempts++;
+    this.lastError = error;
+  }
+
+  public void resetAttempts() {
+    this.attempts = 0;
+  }
+}
@@ -43,6 +43,18 @@ public class PushEvent {
   @NotNull
   Repository repository;
 
+  public PushEvent() {}
+
+  public PushEvent(String head, String ref, int size,
+                   List<Commit> commits, Repository repository)
+  {
+    this.head       = head;
+    this.ref        = ref;
+    this.size       = size;
+    this.commits    = commits;
+    this.repository = repository;
+  }
+
   public Repository getRepository() {
     return repository;
   }
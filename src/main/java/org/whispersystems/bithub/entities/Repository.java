@@ -22,6 +22,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import javax.validation.constraints.NotNull;
+import java.util.Objects;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Repository {
@@ -47,6 +48,13 @@ public class Repository {
     this.url = url;
   }
 
+  public Repository(String url, Author owner, String name, String description) {
+    this.url         = url;
+    this.owner       = owner;
+    this.name        = name;
+    this.description = description;
+  }
+
   public Author getOwner() {
     return owner;
   }
@@ -62,4 +70,22 @@ public class Repository {
   public String getDescription() {
     return description;
   }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other)                  return true;
+    if (!(other instanceof Repository)) return false;
+
+    Repository that = (Repository)other;
+
+    return Objects.equals(url, that.url) &&
+           Objects.equals(owner, that.owner) &&
+           Objects.equals(name, that.name) &&
+           Objects.equals(description, that.description);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(url, owner, name, description);
+  }
 }
@@ -2,6 +2,8 @@ package org.whispersystems.bithub.entities;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Objects;
+
 public class Transaction {
 
   @JsonProperty
@@ -59,4 +61,23 @@ public class Transaction {
     return description;
   }
 
+  @Override
+  public boolean equals(Object other) {
+    if (this == other)                   return true;
+    if (!(other instanceof Transaction)) return false;
+
+    Transaction that = (Transaction)other;
+
+    return Objects.equals(destination, that.destination) &&
+           Objects.equals(amount, that.amount) &&
+           Objects.equals(commitUrl, that.commitUrl) &&
+           Objects.equals(commitSha, that.commitSha) &&
+           Objects.equals(timestamp, that.timestamp) &&
+           Objects.equals(description, that.description);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(destination, amount, commitUrl, commitSha, timestamp, description);
+  }
 }
@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.Repository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Posts commit comments to GitHub in the background, so that payouts never
+ * wait on the GitHub API.
+ *
+ * Comments are posted by a fixed number of threads.  A comment that GitHub
+ * doesn't accept is retried with exponential backoff, up to a maximum number
+ * of attempts.  When a spool directory is configured, each comment is written
+ * there before it is queued and deleted once it has been posted, so that the
+ * backlog is picked up again after a restart.  Comments that exhaust their
+ * attempts are left in the spool with a ".failed" suffix.
+ *
+ * @author Moxie Marlinspike
+ */
+public class CommentOutbox implements Managed {
+
+  private static final String PENDING_SUFFIX = ".json";
+  private static final String FAILED_SUFFIX  = ".failed";
+
+  private final Logger       logger = LoggerFactory.getLogger(CommentOutbox.class);
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final GithubClient                githubClient;
+  private final File                        directory;
+  private final ScheduledThreadPoolExecutor executor;
+  private final int                         maxAttempts;
+  private final long                        initialBackoffMillis;
+  private final long                        maxBackoffMillis;
+  private final AtomicInteger               backlog = new AtomicInteger(0);
+
+  private final Timer postTimer;
+  private final Meter retriedMeter;
+  private final Meter failedMeter;
+
+  /**
+   * @param directory The spool directory to persist the backlog in, or null
+   *                  to keep it in memory only.
+   */
+  public CommentOutbox(GithubClient githubClient, File directory, int concurrency,
+                       int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+                       MetricRegistry metricRegistry)
+  {
+    this.githubClient         = githubClient;
+    this.directory            = directory;
+    this.executor             = new ScheduledThreadPoolExecutor(concurrency);
+    this.maxAttempts          = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis     = maxBackoffMillis;
+
+    this.postTimer    = metricRegistry.timer(name(CommentOutbox.class, "post"));
+    this.retriedMeter = metricRegistry.meter(name(CommentOutbox.class, "retried"));
+    this.failedMeter  = metricRegistry.meter(name(CommentOutbox.class, "failed"));
+
+    metricRegistry.register(name(CommentOutbox.class, "backlog"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return backlog.get();
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    if (directory == null) {
+      return;
+    }
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create comment spool directory: " + directory);
+    }
+
+    File[] spooled = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(PENDING_SUFFIX);
+      }
+    });
+
+    for (File file : spooled) {
+      try {
+        PendingComment comment = mapper.readValue(file, PendingComment.class);
+        backlog.incrementAndGet();
+        schedule(comment, 0);
+      } catch (IOException e) {
+        logger.warn("Unreadable spooled comment: " + file, e);
+      }
+    }
+
+    logger.info("Comment outbox resumed with " + spooled.length + " spooled comments");
+  }
+
+  @Override
+  public void stop() throws Exception {
+    executor.shutdownNow();
+    executor.awaitTermination(30, TimeUnit.SECONDS);
+
+    if (directory == null && backlog.get() > 0) {
+      logger.warn("Shutting down with " + backlog.get() + " unposted commit comments");
+    }
+  }
+
+  /**
+   * Queues a comment for posting.  Returns once the comment has been
+   * written to the spool directory, if there is one.
+   */
+  public void enqueue(Repository repository, Commit commit, String body) throws IOException {
+    enqueue(repository.getOwner().getName(), repository.getName(), commit.getSha(), body);
+  }
+
+  public void enqueue(String owner, String repository, String sha, String body) throws IOException {
+    PendingComment comment = new PendingComment(UUID.randomUUID().toString(),
+                                                owner, repository, sha, body);
+    persist(comment);
+    backlog.incrementAndGet();
+    schedule(comment, 0);
+  }
+
+  private void schedule(final PendingComment comment, long delayMillis) {
+    executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        post(comment);
+      }
+    }, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void post(PendingComment comment) {
+    Timer.Context timer = postTimer.time();
+
+    try {
+      githubClient.addCommitComment(comment.owner, comment.repository, comment.sha, comment.body);
+      backlog.decrementAndGet();
+      delete(comment);
+    } catch (IOException | RuntimeException e) {
+      comment.attempts++;
+
+      if (comment.attempts >= maxAttempts) {
+        logger.warn("Giving up on comment for " + comment.sha + " after " + comment.attempts + " attempts", e);
+        failedMeter.mark();
+        backlog.decrementAndGet();
+        abandon(comment);
+      } else {
+        logger.info("Comment for " + comment.sha + " failed, retrying: " + e.getMessage());
+        retriedMeter.mark();
+        persistQuietly(comment);
+        schedule(comment, getBackoffMillis(comment.attempts));
+      }
+    } finally {
+      timer.stop();
+    }
+  }
+
+  private long getBackoffMillis(int attempts) {
+    long backoff = initialBackoffMillis << Math.min(attempts - 1, 30);
+    return backoff < 0 ? maxBackoffMillis : Math.min(backoff, maxBackoffMillis);
+  }
+
+  private void persist(PendingComment comment) throws IOException {
+    if (directory == null) return;
+
+    File temporary = new File(directory, comment.id + ".tmp");
+
+    try (FileOutputStream out = new FileOutputStream(temporary)) {
+      out.write(mapper.writeValueAsBytes(comment));
+      out.getFD().sync();
+    }
+
+    Files.move(temporary.toPath(), new File(directory, comment.id + PENDING_SUFFIX).toPath(),
+               StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void persistQuietly(PendingComment comment) {
+    try {
+      persist(comment);
+    } catch (IOException e) {
+      logger.warn("Unable to update spooled comment " + comment.id, e);
+    }
+  }
+
+  private void delete(PendingComment comment) {
+    if (directory == null) return;
+
+    File file = new File(directory, comment.id + PENDING_SUFFIX);
+
+    if (!file.delete()) {
+      logger.warn("Unable to remove spooled comment: " + file);
+    }
+  }
+
+  private void abandon(PendingComment comment) {
+    if (directory == null) return;
+
+    File file = new File(directory, comment.id + PENDING_SUFFIX);
+
+    if (!file.renameTo(new File(directory, comment.id + FAILED_SUFFIX))) {
+      logger.warn("Unable to mark spooled comment as failed: " + file);
+    }
+  }
+
+  private static class PendingComment {
+
+    @JsonProperty
+    private String id;
+
+    @JsonProperty
+    private String owner;
+
+    @JsonProperty
+    private String repository;
+
+    @JsonProperty
+    private String sha;
+
+    @JsonProperty
+    private String body;
+
+    @JsonProperty
+    private int attempts;
+
+    public PendingComment() {}
+
+    public PendingComment(String id, String owner, String repository, String sha, String body) {
+      this.id         = id;
+      this.owner      = owner;
+      this.repository = repository;
+      this.sha        = sha;
+      this.body       = body;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.util.KeywordAutomaton;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which commits to a repository qualify for a payout, compiled once
+ * from its RepositoryConfiguration.
+ *
+ * In MONEYMONEY mode every commit is paid unless its message contains an
+ * opt-out keyword, and in FREEBIE mode only commits whose message contains an
+ * opt-in keyword are paid.  Commits whose message starts with a skip prefix
+ * (merges, by default) and commits by excluded authors are never paid.  The
+ * keywords and prefixes are matched together in one pass over the message,
+ * except that a lone keyword is searched for with String.indexOf, which
+ * HotSpot compiles to vectorized code that no per-character automaton beats.
+ * Any other mode is rejected, so that a misconfigured repository fails at
+ * startup rather than paying out under the wrong rules.
+ *
+ * @author Moxie Marlinspike
+ */
+public class CommitRules {
+
+  private static final String MODE_MONEYMONEY = "MONEYMONEY";
+  private static final String MODE_FREEBIE    = "FREEBIE";
+
+  private static final int KEYWORD = 1;
+  private static final int PREFIX  = 2;
+
+  private final boolean          payByDefault;
+  private final KeywordAutomaton automaton;
+  private final int              longestPrefix;
+  private final String           literal;
+  private final Set<String>      excludedAuthors = new HashSet<>();
+
+  public CommitRules(RepositoryConfiguration configuration) {
+    if (!MODE_MONEYMONEY.equalsIgnoreCase(configuration.getMode()) &&
+        !MODE_FREEBIE.equalsIgnoreCase(configuration.getMode()))
+    {
+      throw new IllegalArgumentException("Unknown mode for " + configuration.getUrl() + ": " +
+                                         configuration.getMode());
+    }
+
+    this.payByDefault = MODE_MONEYMONEY.equalsIgnoreCase(configuration.getMode());
+
+    KeywordAutomaton.Builder builder = new KeywordAutomaton.Builder();
+    int                      longest = 0;
+
+    List<String> keywords = payByDefault ? configuration.getOptOutKeywords() : configuration.getOptInKeywords();
+
+    for (String keyword : keywords) {
+      builder.add(keyword, KEYWORD);
+    }
+
+    for (String prefix : configuration.getSkipPrefixes()) {
+      builder.add(prefix, PREFIX);
+      longest = Math.max(longest, prefix.length());
+    }
+
+    for (String author : configuration.getExcludedAuthors()) {
+      excludedAuthors.add(author.toLowerCase());
+    }
+
+    this.automaton     = builder.build();
+    this.longestPrefix = longest;
+    this.literal       = keywords.size() == 1 ? keywords.get(0) : null;
+  }
+
+  public boolean isPayable(Commit commit) {
+    return !isExcluded(commit.getAuthor()) && isPayableMessage(commit.getMessage());
+  }
+
+  public boolean isPayableMessage(String message) {
+    if (message == null) {
+      return false;
+    }
+
+    int     state     = automaton.start();
+    int     prefixEnd = Math.min(longestPrefix, message.length());
+    boolean matched   = false;
+
+    for (int i=0;i<prefixEnd;i++) {
+      state = automaton.next(state, message.charAt(i));
+
+      if ((automaton.getPrefixFlags(state, i + 1) & PREFIX) != 0) {
+        return false;
+      }
+
+      matched |= (automaton.getFlags(state) & KEYWORD) != 0;
+    }
+
+    if (literal != null) {
+      matched = message.indexOf(literal) != -1;
+    } else if (!matched) {
+      matched = automaton.find(message, prefixEnd, state, KEYWORD) != -1;
+    }
+
+    return matched != payByDefault;
+  }
+
+  private boolean isExcluded(Author author) {
+    if (excludedAuthors.isEmpty() || author == null) {
+      return false;
+    }
+
+    return (author.getEmail()    != null && excludedAuthors.contains(author.getEmail().toLowerCase())) ||
+           (author.getUsername() != null && excludedAuthors.contains(author.getUsername().toLowerCase()));
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.codec.PushEventCodec;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Resubmits the push events that a previous run accepted into the
+ * journal but never finished paying out.
+ *
+ * Events that don't fit in the queue are retried in the background until
+ * it accepts them, since their webhooks were already answered with a 202
+ * and GitHub won't deliver them again.
+ *
+ * @author Moxie Marlinspike
+ */
+public class JournalReplayer implements Managed {
+
+  private final Logger          logger   = LoggerFactory.getLogger(JournalReplayer.class);
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  private final PushEventJournal journal;
+  private final PayoutProcessor  processor;
+  private final PushEventQueue   queue;
+  private final long             retryMillis;
+
+  public JournalReplayer(PushEventJournal journal, PayoutProcessor processor, PushEventQueue queue) {
+    this(journal, processor, queue, 1000);
+  }
+
+  /**
+   * @param queue       The queue to resubmit events to, or null to replay
+   *                    them on a background thread.
+   * @param retryMillis The delay before resubmitting an event the queue was
+   *                    too full to accept.
+   */
+  public JournalReplayer(PushEventJournal journal, PayoutProcessor processor, PushEventQueue queue,
+                         long retryMillis)
+  {
+    this.journal     = journal;
+    this.processor   = processor;
+    this.queue       = queue;
+    this.retryMillis = retryMillis;
+  }
+
+  @Override
+  public void start() throws Exception {
+    final List<PushEventJournal.Entry> unfinished = journal.getUnfinished();
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (PushEventJournal.Entry entry : unfinished) {
+            replay(entry);
+          }
+        } catch (InterruptedException e) {
+          logger.warn("Replay interrupted, deferring remaining journaled push events to next start");
+        }
+      }
+    });
+
+    executor.shutdown();
+  }
+
+  @Override
+  public void stop() throws Exception {
+    executor.shutdownNow();
+  }
+
+  private void replay(PushEventJournal.Entry entry) throws InterruptedException {
+    try {
+      PushEvent event = PushEventCodec.decode(entry.getPayload());
+
+      logger.info("Replaying journaled push event " + entry.getId());
+
+      if (queue == null) {
+        processor.process(event, entry);
+        return;
+      }
+
+      while (!queue.enqueue(event, entry)) {
+        logger.warn("Queue full, retrying journaled push event " + entry.getId() + " in " + retryMillis + "ms");
+        Thread.sleep(retryMillis);
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Replay failed", e);
+    }
+  }
+}
@@ -0,0 +1,367 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.whispersystems.bithub.payouts;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.FailedPayment;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.util.Money;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Retries payouts whose Coinbase transfer failed, on a background thread
+ * so that a Coinbase outage never holds up webhook handling.
+ *
+ * Each retry waits for an exponentially growing, jittered backoff.  A
+ * payout that is sent has its commit comment queued on the CommentOutbox.
+ * One that exhausts its attempts is dead-lettered, where it stays until
+ * it is replayed or discarded.  While a payout is queued its amount is
+ * held on the BalanceLedger.
+ *
+ * When a spool directory is configured, queued payouts are written there
+ * and dead-lettered ones are kept there with a ".dead" suffix, so that
+ * both survive a restart.
+ *
+ * @author Moxie Marlinspike
+ */
+public class PaymentRetryQueue implements Managed {
+
+  private static final String PENDING_SUFFIX = ".json";
+  private static final String DEAD_SUFFIX    = ".dead";
+
+  private final Logger       logger = LoggerFactory.getLogger(PaymentRetryQueue.class);
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final CoinbaseClient                         coinbaseClient;
+  private final BalanceLedger                          ledger;
+  private final CommentOutbox                          outbox;
+  private final PayoutListener                         listener;
+  private final File                                   directory;
+  private final ScheduledThreadPoolExecutor            executor;
+  private final int                                    maxAttempts;
+  private final long                                   initialBackoffMillis;
+  private final long                                   maxBackoffMillis;
+  private final Map<String, BalanceLedger.Reservation> holds       = new ConcurrentHashMap<>();
+  private final Map<String, FailedPayment>             deadLetters = new ConcurrentHashMap<>();
+  private final AtomicInteger                          backlog     = new AtomicInteger(0);
+
+  private final Meter sentMeter;
+  private final Meter retriedMeter;
+  private final Meter deadLetteredMeter;
+
+  public PaymentRetryQueue(CoinbaseClient coinbaseClient, BalanceLedger ledger,
+                           CommentOutbox outbox, File directory, int maxAttempts,
+                           long initialBackoffMillis, long maxBackoffMillis,
+                           MetricRegistry metricRegistry)
+  {
+    this(coinbaseClient, ledger, outbox, null, directory, maxAttempts,
+         initialBackoffMillis, maxBackoffMillis, metricRegistry);
+  }
+
+  /**
+   * @param listener  The listener to notify of retried payments as they're
+   *                  sent or given up on, or null.
+   * @param directory The spool directory to persist queued and dead-lettered
+   *                  payouts in, or null to keep them in memory only.
+   */
+  public PaymentRetryQueue(CoinbaseClient coinbaseClient, BalanceLedger ledger,
+                           CommentOutbox outbox, PayoutListener listener, File directory,
+                           int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+                           MetricRegistry metricRegistry)
+  {
+    this.coinbaseClient       = coinbaseClient;
+    this.ledger               = ledger;
+    this.outbox               = outbox;
+    this.listener             = listener;
+    this.directory            = directory;
+    this.executor             = new ScheduledThreadPoolExecutor(1);
+    this.maxAttempts          = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis     = maxBackoffMillis;
+
+    this.sentMeter         = metricRegistry.meter(name(PaymentRetryQueue.class, "sent"));
+    this.retriedMeter      = metricRegistry.meter(name(PaymentRetryQueue.class, "retried"));
+    this.deadLetteredMeter = metricRegistry.meter(name(PaymentRetryQueue.class, "dead-lettered"));
+
+    metricRegistry.register(name(PaymentRetryQueue.class, "backlog"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return backlog.get();
+      }
+    });
+
+    metricRegistry.register(name(PaymentRetryQueue.class, "dead-letters"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return deadLetters.size();
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    if (directory == null) {
+      return;
+    }
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create payment spool directory: " + directory);
+    }
+
+    File[] spooled = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(PENDING_SUFFIX) || name.endsWith(DEAD_SUFFIX);
+      }
+    });
+
+    for (File file : spooled) {
+      try {
+        FailedPayment payment = mapper.readValue(file, FailedPayment.class);
+
+        if (file.getName().endsWith(DEAD_SUFFIX)) {
+          deadLetters.put(payment.getId(), payment);
+        } else {
+          hold(payment);
+          schedule(payment, getBackoffMillis(Math.max(payment.getAttempts(), 1)));
+        }
+      } catch (IOException e) {
+        logger.warn("Unreadable spooled payment: " + file, e);
+      }
+    }
+
+    logger.info("Payment retry queue resumed with " + backlog.get() + " queued and " +
+                deadLetters.size() + " dead-lettered payments");
+  }
+
+  @Override
+  public void stop() throws Exception {
+    executor.shutdownNow();
+    executor.awaitTermination(30, TimeUnit.SECONDS);
+
+    if (directory == null && backlog.get() > 0) {
+      logger.warn("Shutting down with " + backlog.get() + " unsent payments");
+    }
+  }
+
+  /**
+   * Queues a payout whose transfer failed for a retry.  Returns once the
+   * payout has been written to the spool directory, if there is one.
+   */
+  public void enqueue(String owner, String repository, Commit commit, long satoshis, String comment)
+      throws IOException
+  {
+    FailedPayment payment = new FailedPayment(UUID.randomUUID().toString(), owner, repository,
+                                              commit, satoshis, comment);
+    payment.recordFailure("Initial transfer failed");
+
+    persist(payment, PENDING_SUFFIX);
+    hold(payment);
+    schedule(payment, getBackoffMillis(payment.getAttempts()));
+  }
+
+  public List<FailedPayment> getDeadLetters() {
+    return new ArrayList<>(deadLetters.values());
+  }
+
+  /**
+   * Queues a dead-lettered payout for another full set of attempts.
+   *
+   * @return false if there is no such dead-lettered payout.
+   */
+  public boolean replay(String id) throws IOException {
+    FailedPayment payment = deadLetters.remove(id);
+
+    if (payment == null) {
+      return false;
+    }
+
+    payment.resetAttempts();
+    persist(payment, PENDING_SUFFIX);
+    delete(payment, DEAD_SUFFIX);
+    hold(payment);
+    schedule(payment, 0);
+
+    return true;
+  }
+
+  /**
+   * @return false if there is no such dead-lettered payout.
+   */
+  public boolean discard(String id) {
+    FailedPayment payment = deadLetters.remove(id);
+
+    if (payment == null) {
+      return false;
+    }
+
+    logger.info("Discarding dead-lettered payment for " + payment.getCommit().getUrl());
+    delete(payment, DEAD_SUFFIX);
+
+    return true;
+  }
+
+  private void hold(FailedPayment payment) {
+    holds.put(payment.getId(), ledger.hold(payment.getSatoshis()));
+    backlog.incrementAndGet();
+  }
+
+  private void schedule(final FailedPayment payment, long delayMillis) {
+    executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        send(payment);
+      }
+    }, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void send(FailedPayment payment) {
+    try {
+      coinbaseClient.sendPayment(payment.getCommit().getAuthor(),
+                                 Money.fromSatoshis(payment.getSatoshis()),
+                                 payment.getCommit().getUrl());
+    } catch (TransferFailedException | RuntimeException e) {
+      payment.recordFailure(e.toString());
+
+      if (payment.getAttempts() >= maxAttempts) {
+        logger.warn("Dead-lettering payment for " + payment.getCommit().getUrl() +
+                    " after " + payment.getAttempts() + " attempts", e);
+        deadLetteredMeter.mark();
+        deadLetter(payment);
+      } else {
+        logger.info("Payment for " + payment.getCommit().getUrl() + " failed, retrying");
+        retriedMeter.mark();
+        persistQuietly(payment, PENDING_SUFFIX);
+        schedule(payment, getBackoffMillis(payment.getAttempts()));
+      }
+
+      return;
+    }
+
+    sentMeter.mark();
+    holds.remove(payment.getId()).confirm();
+    backlog.decrementAndGet();
+    delete(payment, PENDING_SUFFIX);
+    notifyPaymentSent(payment);
+
+    try {
+      outbox.enqueue(payment.getOwner(), payment.getRepository(),
+                     payment.getCommit().getSha(), payment.getComment());
+    } catch (IOException e) {
+      logger.warn("Queueing comment for retried payment failed", e);
+    }
+  }
+
+  private void deadLetter(FailedPayment payment) {
+    holds.remove(payment.getId()).release();
+    backlog.decrementAndGet();
+    deadLetters.put(payment.getId(), payment);
+
+    if (listener != null) {
+      listener.onBalanceChanged();
+    }
+
+    try {
+      persist(payment, DEAD_SUFFIX);
+      delete(payment, PENDING_SUFFIX);
+    } catch (IOException e) {
+      logger.warn("Unable to spool dead-lettered payment " + payment.getId(), e);
+    }
+  }
+
+  private void notifyPaymentSent(FailedPayment payment) {
+    if (listener == null) return;
+
+    try {
+      listener.onPaymentSent(payment.getCommit(), payment.getSatoshis(), ledger.getExchangeRate());
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Notifying of retried payment failed", e);
+    }
+  }
+
+  /**
+   * Exponential backoff with its upper half jittered, so that payouts which
+   * failed together during an outage don't all retry together.
+   */
+  private long getBackoffMillis(int attempts) {
+    long backoff = initialBackoffMillis << Math.min(attempts - 1, 30);
+    backoff = backoff < 0 ? maxBackoffMillis : Math.min(backoff, maxBackoffMillis);
+
+    return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+  }
+
+  private void persist(FailedPayment payment, String suffix) throws IOException {
+    if (directory == null) return;
+
+    File temporary = new File(directory, payment.getId() + ".tmp");
+
+    try (FileOutputStream out = new FileOutputStream(temporary)) {
+      out.write(mapper.writeValueAsBytes(payment));
+      out.getFD().sync();
+    }
+
+    Files.move(temporary.toPath(), new File(directory, payment.getId() + suffix).toPath(),
+               StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void persistQuietly(FailedPayment payment, String suffix) {
+    try {
+      persist(payment, suffix);
+    } catch (IOException e) {
+      logger.warn("Unable to update spooled payment " + payment.getId(), e);
+    }
+  }
+
+  private void delete(FailedPayment payment, String suffix) {
+    if (directory == null) return;
+
+    File file = new File(directory, payment.getId() + suffix);
+
+    if (file.exists() && !file.delete()) {
+      logger.warn("Unable to remove spooled payment: " + file);
+    }
+  }
+}
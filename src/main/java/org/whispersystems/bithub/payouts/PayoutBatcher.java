@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.util.Money;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Coalesces payouts to the same author across pushes into a single
+ * Coinbase transfer.  A batch is sent once it has been open for the
+ * configured window, or once it holds the maximum number of payments.
+ *
+ * @author Moxie Marlinspike
+ */
+public class PayoutBatcher implements Managed {
+
+  private final Logger                   logger   = LoggerFactory.getLogger(PayoutBatcher.class);
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+  private final Map<String, Batch>       batches  = new HashMap<>();
+
+  private final CoinbaseClient coinbaseClient;
+  private final long           windowMillis;
+  private final int            maxPayments;
+
+  private final Histogram batchSizes;
+  private final Timer     flushLatency;
+  private final Counter   callsSaved;
+
+  private boolean stopped;
+
+  public PayoutBatcher(CoinbaseClient coinbaseClient, long windowMillis, int maxPayments,
+                       MetricRegistry metricRegistry)
+  {
+    this.coinbaseClient = coinbaseClient;
+    this.windowMillis   = windowMillis;
+    this.maxPayments    = maxPayments;
+
+    this.batchSizes   = metricRegistry.histogram(name(PayoutBatcher.class, "batch-size"));
+    this.flushLatency = metricRegistry.timer(name(PayoutBatcher.class, "flush-latency"));
+    this.callsSaved   = metricRegistry.counter(name(PayoutBatcher.class, "calls-saved"));
+  }
+
+  @Override
+  public void start() throws Exception {}
+
+  /**
+   * Sends every open batch now, and waits for batches that are already
+   * queued to be sent, so that no reservation is left unsettled.
+   */
+  @Override
+  public void stop() throws Exception {
+    List<Batch> remaining;
+
+    synchronized (batches) {
+      stopped   = true;
+      remaining = new LinkedList<>(batches.values());
+      batches.clear();
+
+      for (Batch batch : remaining) {
+        batch.timer.cancel(false);
+      }
+    }
+
+    executor.shutdown();
+
+    for (Batch batch : remaining) {
+      send(batch);
+    }
+
+    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+      logger.warn("Batched transfer still running at shutdown, sending queued batches inline");
+
+      for (Runnable queued : executor.shutdownNow()) {
+        queued.run();
+      }
+    }
+  }
+
+  /**
+   * Adds a reserved payout to its author's open batch.  The callback is invoked
+   * once the batch has been sent, after the reservation is confirmed or released.
+   *
+   * @throws RejectedExecutionException if the batcher has been stopped, in which
+   *                                    case the payout was not added.
+   */
+  public void add(Author author, String commitUrl, BalanceLedger.Reservation reservation,
+                  Callback callback)
+  {
+    synchronized (batches) {
+      if (stopped) {
+        throw new RejectedExecutionException("Payout batcher is stopped");
+      }
+
+      String key   = author.getEmail().toLowerCase();
+      Batch  batch = batches.get(key);
+
+      if (batch == null) {
+        final Batch created = new Batch(key, author);
+
+        created.timer = executor.schedule(new Runnable() {
+          @Override
+          public void run() {
+            flush(created);
+          }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+
+        batches.put(key, created);
+        batch = created;
+      }
+
+      batch.items.add(new Item(commitUrl, reservation, callback));
+
+      if (batch.items.size() >= maxPayments) {
+        final Batch full = batch;
+
+        batches.remove(key);
+        full.timer.cancel(false);
+
+        // Queued while holding the lock, so that stop() can't shut the
+        // executor down between removing the batch and queueing its send.
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            send(full);
+          }
+        });
+      }
+    }
+  }
+
+  private void flush(Batch batch) {
+    synchronized (batches) {
+      if (batches.get(batch.key) != batch) {
+        return;
+      }
+
+      batches.remove(batch.key);
+    }
+
+    send(batch);
+  }
+
+  private void send(Batch batch) {
+    List<String> urls  = new LinkedList<>();
+    long         total = 0;
+
+    for (Item item : batch.items) {
+      urls.add(item.commitUrl);
+      total += item.reservation.getSatoshis();
+    }
+
+    boolean sent;
+
+    try {
+      coinbaseClient.sendPayment(batch.author, Money.fromSatoshis(total), urls);
+      sent = true;
+    } catch (TransferFailedException | RuntimeException e) {
+      logger.warn("Batched transfer failed", e);
+      sent = false;
+    }
+
+    batchSizes.update(batch.items.size());
+    flushLatency.update(System.nanoTime() - batch.openedAt, TimeUnit.NANOSECONDS);
+
+    if (sent) {
+      callsSaved.inc(batch.items.size() - 1);
+    }
+
+    for (Item item : batch.items) {
+      try {
+        if (sent) {
+          item.reservation.confirm();
+          item.callback.onSent(item.reservation);
+        } else {
+          item.reservation.release();
+          item.callback.onFailed(item.reservation);
+        }
+      } catch (RuntimeException e) {
+        logger.warn("Payout callback failed", e);
+      }
+    }
+  }
+
+  public interface Callback {
+    public void onSent(BalanceLedger.Reservation reservation);
+    public void onFailed(BalanceLedger.Reservation reservation);
+  }
+
+  private static class Batch {
+    private final String     key;
+    private final Author     author;
+    private final long       openedAt = System.nanoTime();
+    private final List<Item> items    = new LinkedList<>();
+
+    private ScheduledFuture<?> timer;
+
+    private Batch(String key, Author author) {
+      this.key    = key;
+      this.author = author;
+    }
+  }
+
+  private static class Item {
+    private final String                    commitUrl;
+    private final BalanceLedger.Reservation reservation;
+    private final Callback                  callback;
+
+    private Item(String commitUrl, BalanceLedger.Reservation reservation, Callback callback) {
+      this.commitUrl   = commitUrl;
+      this.reservation = reservation;
+      this.callback    = callback;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.util.ConversionRate;
+
+/**
+ * Notified by the payout pipeline as payments are made, so that state
+ * derived from them can be updated without polling upstream.  Called on
+ * payout threads, so implementations should hand off any slow work.
+ *
+ * @author Moxie Marlinspike
+ */
+public interface PayoutListener {
+
+  /**
+   * A payment for a commit was sent, and taken from the ledger's balance,
+   * either when it was first made or by the retry queue.
+   */
+  public void onPaymentSent(Commit commit, long satoshis, ConversionRate exchangeRate);
+
+  /**
+   * The ledger's balance changed without a payment being sent, such as when
+   * a failed transfer's reservation is released.
+   */
+  public void onBalanceChanged();
+
+}
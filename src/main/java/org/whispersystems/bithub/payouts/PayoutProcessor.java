@@ -0,0 +1,391 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.PaidCommitIndex;
+import org.whispersystems.bithub.storage.PushEventJournal;
+import org.whispersystems.bithub.util.ConversionRate;
+import org.whispersystems.bithub.util.Money;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pays out the qualifying commits of an accepted PushEvent and
+ * leaves a comment on each of them.
+ *
+ * @author Moxie Marlinspike
+ */
+public class PayoutProcessor {
+
+  private final Logger logger = LoggerFactory.getLogger(PayoutProcessor.class);
+
+  private final CoinbaseClient           coinbaseClient;
+  private final GithubClient             githubClient;
+  private final Map<String, CommitRules> repositories;
+  private final BalanceLedger            ledger;
+  private final long                     payoutRatePpb;
+  private final PushEventJournal         journal;
+  private final PayoutBatcher            batcher;
+  private final CommentOutbox            outbox;
+  private final PaymentRetryQueue        retryQueue;
+  private final PaidCommitIndex          paidCommits;
+  private final PayoutListener           listener;
+
+  public PayoutProcessor(List<RepositoryConfiguration> repositories,
+                         GithubClient githubClient,
+                         CoinbaseClient coinbaseClient,
+                         BalanceLedger ledger,
+                         BigDecimal payoutRate)
+  {
+    this(repositories, githubClient, coinbaseClient, ledger, payoutRate, null, null, null, null, null, null);
+  }
+
+  /**
+   * @param journal     The journal to record completed payout steps in, or null.
+   * @param batcher     The batcher to coalesce payouts through, or null to send
+   *                    each payout immediately.
+   * @param outbox      The outbox to post commit comments through, or null to
+   *                    post them inline.
+   * @param retryQueue  The queue to retry failed transfers on, or null to give
+   *                    up on them.
+   * @param paidCommits The index of commits already paid, to never pay twice,
+   *                    or null.
+   * @param listener    The listener to notify of payments as they're made, or null.
+   */
+  public PayoutProcessor(List<RepositoryConfiguration> repositories,
+                         GithubClient githubClient,
+                         CoinbaseClient coinbaseClient,
+                         BalanceLedger ledger,
+                         BigDecimal payoutRate,
+                         PushEventJournal journal,
+                         PayoutBatcher batcher,
+                         CommentOutbox outbox,
+                         PaymentRetryQueue retryQueue,
+                         PaidCommitIndex paidCommits,
+                         PayoutListener listener)
+  {
+    this.coinbaseClient = coinbaseClient;
+    this.githubClient   = githubClient;
+    this.ledger         = ledger;
+    this.repositories   = new HashMap<>();
+    this.payoutRatePpb  = Money.toPartsPerBillion(payoutRate);
+    this.journal        = journal;
+    this.batcher        = batcher;
+    this.outbox         = outbox;
+    this.retryQueue     = retryQueue;
+    this.paidCommits    = paidCommits;
+    this.listener       = listener;
+
+    for (RepositoryConfiguration repository : repositories) {
+      this.repositories.put(repository.getUrl().toLowerCase(), new CommitRules(repository));
+    }
+  }
+
+  public void process(PushEvent event) throws IOException {
+    process(event, null);
+  }
+
+  /**
+   * @param entry The journal entry for this event, or null if it isn't journaled.
+   *              Commits that the entry already records as paid or commented on
+   *              are skipped.
+   */
+  public void process(PushEvent event, PushEventJournal.Entry entry) throws IOException {
+    Repository     repository   = event.getRepository();
+    CommitRules    rules        = repositories.get(repository.getUrl().toLowerCase());
+    List<Commit>   commits      = getQualifyingCommits(event, rules);
+    ConversionRate exchangeRate = ledger.getExchangeRate();
+    Completion     completion   = new Completion(entry);
+
+    logger.info("Ledger balance: " + ledger.getBalance().toPlainString());
+
+    try {
+      sendPaymentsFor(repository, commits, exchangeRate, completion);
+    } finally {
+      completion.release();
+    }
+  }
+
+  private void sendPaymentsFor(final Repository repository, List<Commit> commits,
+                               final ConversionRate exchangeRate, final Completion completion)
+      throws IOException
+  {
+    for (final Commit commit : commits) {
+      if (completion.entry != null && completion.entry.isPaid(commit.getSha())) {
+        if (!completion.entry.isCommented(commit.getSha())) {
+          logger.warn("Skipping comment for previously paid commit: " + commit.getUrl());
+        }
+
+        continue;
+      }
+
+      if (paidCommits != null && !paidCommits.claim(repository.getUrl(), commit.getSha())) {
+        logger.info("Skipping previously paid commit: " + commit.getUrl());
+        continue;
+      }
+
+      BalanceLedger.Reservation payout;
+
+      try {
+        payout = ledger.reserve(payoutRatePpb);
+      } catch (IOException | RuntimeException e) {
+        releaseClaim(repository, commit);
+        throw e;
+      }
+
+      if (batcher != null && payout.isViable() && addToBatch(repository, commit, payout, exchangeRate, completion)) {
+        continue;
+      }
+
+      // Nothing is sent for a non-viable payout, so the commit stays payable.
+      if (!payout.isViable()) {
+        payout.confirm();
+        releaseClaim(repository, commit);
+        recordPayment(repository, commit, payout.getSatoshis(), exchangeRate, completion.entry);
+        continue;
+      }
+
+      try {
+        coinbaseClient.sendPayment(commit.getAuthor(), payout.getAmount(), commit.getUrl());
+      } catch (TransferFailedException e) {
+        logger.warn("Transfer failed", e);
+        payout.release();
+        notifyBalanceChanged();
+        retryPayment(repository, commit, payout.getSatoshis(), exchangeRate, completion.entry);
+        continue;
+      } catch (RuntimeException e) {
+        payout.release();
+        releaseClaim(repository, commit);
+        throw e;
+      }
+
+      payout.confirm();
+      confirmClaim(repository, commit);
+      notifyPaymentSent(commit, payout.getSatoshis(), exchangeRate);
+      recordPayment(repository, commit, payout.getSatoshis(), exchangeRate, completion.entry);
+    }
+  }
+
+  /**
+   * @return false if the batcher has been stopped, in which case the payout
+   *         should be sent immediately instead.
+   */
+  private boolean addToBatch(final Repository repository, final Commit commit,
+                             BalanceLedger.Reservation payout, final ConversionRate exchangeRate,
+                             final Completion completion)
+  {
+    completion.retain();
+
+    try {
+      batcher.add(commit.getAuthor(), commit.getUrl(), payout, new PayoutBatcher.Callback() {
+        @Override
+        public void onSent(BalanceLedger.Reservation reservation) {
+          try {
+            confirmClaim(repository, commit);
+            notifyPaymentSent(commit, reservation.getSatoshis(), exchangeRate);
+            recordPayment(repository, commit, reservation.getSatoshis(), exchangeRate, completion.entry);
+          } catch (IOException e) {
+            logger.warn("Recording batched payment failed", e);
+          } finally {
+            completion.release();
+          }
+        }
+
+        @Override
+        public void onFailed(BalanceLedger.Reservation reservation) {
+          notifyBalanceChanged();
+
+          try {
+            retryPayment(repository, commit, reservation.getSatoshis(), exchangeRate, completion.entry);
+          } catch (IOException e) {
+            logger.warn("Queueing batched payment for retry failed", e);
+          } finally {
+            completion.release();
+          }
+        }
+      });
+
+      return true;
+    } catch (RejectedExecutionException e) {
+      logger.warn("Payout batcher stopped, sending immediately: " + commit.getUrl());
+      completion.release();
+      return false;
+    }
+  }
+
+  private void recordPayment(Repository repository, Commit commit, long payoutSatoshis,
+                             ConversionRate exchangeRate, PushEventJournal.Entry entry)
+      throws IOException
+  {
+    if (entry != null) {
+      journal.markPaid(entry, commit.getSha());
+    }
+
+    String comment = getCommitCommentStringForPayment(payoutSatoshis, exchangeRate);
+
+    if (outbox != null) {
+      outbox.enqueue(repository, commit, comment);
+    } else {
+      try {
+        githubClient.addCommitComment(repository, commit, comment);
+      } catch (IOException e) {
+        logger.warn("Comment failed", e);
+      }
+    }
+
+    if (entry != null) {
+      journal.markCommented(entry, commit.getSha());
+    }
+  }
+
+  private void notifyPaymentSent(Commit commit, long payoutSatoshis, ConversionRate exchangeRate) {
+    if (listener != null && payoutSatoshis > 0) {
+      listener.onPaymentSent(commit, payoutSatoshis, exchangeRate);
+    }
+  }
+
+  private void notifyBalanceChanged() {
+    if (listener != null) {
+      listener.onBalanceChanged();
+    }
+  }
+
+  private void retryPayment(Repository repository, Commit commit, long payoutSatoshis,
+                            ConversionRate exchangeRate, PushEventJournal.Entry entry)
+      throws IOException
+  {
+    if (retryQueue == null) {
+      releaseClaim(repository, commit);
+      return;
+    }
+
+    try {
+      retryQueue.enqueue(repository.getOwner().getName(), repository.getName(), commit, payoutSatoshis,
+                         getCommitCommentStringForPayment(payoutSatoshis, exchangeRate));
+    } catch (IOException | RuntimeException e) {
+      releaseClaim(repository, commit);
+      throw e;
+    }
+
+    // The retry queue pays and comments from here on, so neither a replay
+    // nor a later push may.
+    confirmClaim(repository, commit);
+
+    if (entry != null) {
+      journal.markPaid(entry, commit.getSha());
+      journal.markCommented(entry, commit.getSha());
+    }
+  }
+
+  /**
+   * Records a claimed commit as paid once its payout has been sent or
+   * handed to the retry queue, and not before, so that a crash in between
+   * leaves it for the journal replay to pay.
+   */
+  private void confirmClaim(Repository repository, Commit commit) {
+    if (paidCommits == null) return;
+
+    try {
+      paidCommits.confirm(repository.getUrl(), commit.getSha());
+    } catch (IOException e) {
+      logger.warn("Recording paid commit failed: " + commit.getUrl(), e);
+    }
+  }
+
+  private void releaseClaim(Repository repository, Commit commit) {
+    if (paidCommits != null) {
+      paidCommits.release(repository.getUrl(), commit.getSha());
+    }
+  }
+
+  private List<Commit> getQualifyingCommits(PushEvent event, CommitRules rules) {
+    List<Commit> commits = new LinkedList<>();
+    Set<String>  emails  = new HashSet<>();
+
+    for (Commit commit : event.getCommits()) {
+      logger.info(commit.getUrl());
+      if (!emails.contains(commit.getAuthor().getEmail())) {
+        logger.info("Unique author: "+ commit.getAuthor().getEmail());
+        if (rules.isPayable(commit)) {
+          logger.info("Not a merge commit or freebie...");
+
+          emails.add(commit.getAuthor().getEmail());
+          commits.add(commit);
+        }
+      }
+    }
+
+    return commits;
+  }
+
+  private String getCommitCommentStringForPayment(long paymentSatoshis, ConversionRate exchangeRate) {
+    if (paymentSatoshis > 0) {
+      long paymentCents = exchangeRate.toCents(paymentSatoshis);
+      return "Thanks! BitHub has sent payment of  $" + Money.formatCents(paymentCents) + "USD for this commit.";
+    } else {
+      return "Thanks! Unfortunately our BitHub balance is $0.00, so no payout can be made.";
+    }
+  }
+
+  /**
+   * Tracks the payouts of one event that are still outstanding, so that its
+   * journal entry is only completed once any batched payouts have been sent.
+   */
+  private class Completion {
+
+    private final PushEventJournal.Entry entry;
+    private final AtomicInteger          outstanding = new AtomicInteger(1);
+
+    private Completion(PushEventJournal.Entry entry) {
+      this.entry = entry;
+    }
+
+    private void retain() {
+      outstanding.incrementAndGet();
+    }
+
+    private void release() {
+      if (outstanding.decrementAndGet() == 0 && entry != null) {
+        try {
+          journal.markCompleted(entry);
+        } catch (IOException e) {
+          logger.warn("Completing journal entry failed", e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import org.whispersystems.bithub.entities.PushEvent;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Drops webhook redeliveries, recognized either by their X-GitHub-Delivery
+ * ID or by a repository and head commit that have already been seen.
+ *
+ * Seen keys are held in a bounded, segmented LRU that forgets them once
+ * the de-duplication window has passed.
+ *
+ * @author Moxie Marlinspike
+ */
+public class PushEventDeduplicator {
+
+  private static final String DELIVERY_PREFIX = "delivery:";
+  private static final String HEAD_PREFIX     = "head:";
+
+  // Approximate footprint of one entry beyond its key's characters: the String
+  // and its char[] headers, plus the cache's entry, value and expiry bookkeeping.
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+  private final ConcurrentMap<String, Boolean> seen;
+
+  private final Counter hits;
+  private final Counter misses;
+
+  public PushEventDeduplicator(int capacity, long windowMillis, MetricRegistry metricRegistry) {
+    this.seen = CacheBuilder.newBuilder()
+                            .maximumSize(capacity)
+                            .expireAfterWrite(windowMillis, TimeUnit.MILLISECONDS)
+                            .<String, Boolean>build()
+                            .asMap();
+
+    this.hits   = metricRegistry.counter(name(PushEventDeduplicator.class, "hits"));
+    this.misses = metricRegistry.counter(name(PushEventDeduplicator.class, "misses"));
+
+    metricRegistry.register(name(PushEventDeduplicator.class, "size"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return seen.size();
+      }
+    });
+
+    metricRegistry.register(name(PushEventDeduplicator.class, "bytes"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        long bytes = 0;
+
+        for (String key : seen.keySet()) {
+          bytes += ENTRY_OVERHEAD_BYTES + 2 * key.length();
+        }
+
+        return bytes;
+      }
+    });
+  }
+
+  /**
+   * Atomically checks and records a delivery.
+   *
+   * @param deliveryId The X-GitHub-Delivery header, if present.
+   * @return true if this delivery or its head commit was already seen.
+   */
+  public boolean isDuplicate(String deliveryId, PushEvent event) {
+    boolean newDelivery = deliveryId == null || seen.putIfAbsent(getDeliveryKey(deliveryId), Boolean.TRUE) == null;
+    boolean newHead     = event.getHead() == null || seen.putIfAbsent(getHeadKey(event), Boolean.TRUE) == null;
+
+    if (newDelivery && newHead) {
+      misses.inc();
+      return false;
+    } else {
+      hits.inc();
+      return true;
+    }
+  }
+
+  /**
+   * Forgets a delivery that was recorded but not accepted for processing,
+   * so that GitHub's redelivery of it isn't dropped.
+   */
+  public void forget(String deliveryId, PushEvent event) {
+    if (deliveryId != null)      seen.remove(getDeliveryKey(deliveryId));
+    if (event.getHead() != null) seen.remove(getHeadKey(event));
+  }
+
+  private String getDeliveryKey(String deliveryId) {
+    return DELIVERY_PREFIX + deliveryId;
+  }
+
+  private String getHeadKey(PushEvent event) {
+    return HEAD_PREFIX + event.getRepository().getUrl().toLowerCase() + "@" + event.getHead();
+  }
+}
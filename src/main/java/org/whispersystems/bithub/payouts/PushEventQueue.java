@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Bounded queues of accepted PushEvents, drained off the request thread.
+ *
+ * Events are spread across a fixed set of lanes by repository, and each lane
+ * is drained by a single thread.  Pushes to the same repository are therefore
+ * always paid out in the order they were accepted, since each payout is a
+ * fraction of what the previous one left behind, while pushes to different
+ * repositories are paid out in parallel.
+ *
+ * @author Moxie Marlinspike
+ */
+public class PushEventQueue implements Managed {
+
+  private final Logger logger = LoggerFactory.getLogger(PushEventQueue.class);
+
+  private final PayoutProcessor processor;
+  private final Lane[]          lanes;
+
+  private final Timer waitTimer;
+  private final Meter rejectedMeter;
+
+  /**
+   * @param queueSize The number of events each lane can hold.
+   * @param lanes     The number of lanes, and so of worker threads.
+   */
+  public PushEventQueue(PayoutProcessor processor, int queueSize, int lanes,
+                        MetricRegistry metricRegistry)
+  {
+    this.processor = processor;
+    this.lanes     = new Lane[lanes];
+
+    for (int i=0;i<lanes;i++) {
+      this.lanes[i] = new Lane(i, queueSize, metricRegistry);
+    }
+
+    this.waitTimer     = metricRegistry.timer(name(PushEventQueue.class, "wait"));
+    this.rejectedMeter = metricRegistry.meter(name(PushEventQueue.class, "rejected"));
+
+    metricRegistry.register(name(PushEventQueue.class, "depth"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        int depth = 0;
+
+        for (Lane lane : PushEventQueue.this.lanes) {
+          depth += lane.queue.size();
+        }
+
+        return depth;
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    for (Lane lane : lanes) {
+      lane.executor.prestartAllCoreThreads();
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    for (Lane lane : lanes) {
+      lane.executor.shutdown();
+    }
+
+    for (Lane lane : lanes) {
+      if (!lane.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+        logger.warn("Shutting down with " + lane.queue.size() + " push events still queued on lane " + lane.index);
+        lane.executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * @param entry The journal entry for this event, or null if it isn't journaled.
+   * @return false if the event's lane is full and the event was not accepted.
+   */
+  public boolean enqueue(PushEvent event, PushEventJournal.Entry entry) {
+    Lane lane = getLane(event.getRepository().getUrl());
+
+    try {
+      lane.executor.execute(new PushEventTask(lane, event, entry));
+      return true;
+    } catch (RejectedExecutionException e) {
+      rejectedMeter.mark();
+      return false;
+    }
+  }
+
+  private Lane getLane(String repositoryUrl) {
+    int hash = repositoryUrl.toLowerCase().hashCode();
+    hash ^= (hash >>> 16);
+
+    return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+  }
+
+  private static class Lane {
+
+    private final int                     index;
+    private final BlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor      executor;
+    private final Timer                   busyTimer;
+
+    private Lane(int index, int queueSize, MetricRegistry metricRegistry) {
+      this.index     = index;
+      this.queue     = new ArrayBlockingQueue<>(queueSize);
+      this.executor  = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, queue);
+      this.busyTimer = metricRegistry.timer(name(PushEventQueue.class, "lane-" + index, "busy"));
+
+      metricRegistry.register(name(PushEventQueue.class, "lane-" + index, "depth"), new Gauge<Integer>() {
+        @Override
+        public Integer getValue() {
+          return queue.size();
+        }
+      });
+    }
+  }
+
+  private class PushEventTask implements Runnable {
+
+    private final Lane                   lane;
+    private final PushEvent              event;
+    private final PushEventJournal.Entry entry;
+    private final long                   enqueuedAt;
+
+    public PushEventTask(Lane lane, PushEvent event, PushEventJournal.Entry entry) {
+      this.lane       = lane;
+      this.event      = event;
+      this.entry      = entry;
+      this.enqueuedAt = System.nanoTime();
+    }
+
+    @Override
+    public void run() {
+      waitTimer.update(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+
+      Timer.Context timer = lane.busyTimer.time();
+
+      try {
+        processor.process(event, entry);
+      } catch (IOException | RuntimeException e) {
+        logger.warn("Processing push event failed", e);
+      } finally {
+        timer.stop();
+      }
+    }
+  }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.util.AdvancedAtomicLong;
+import org.whispersystems.bithub.util.ConversionRate;
+import org.whispersystems.bithub.util.Money;
+import org.whispersystems.bithub.util.SingleFlight;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * An in-process copy of the Coinbase balance, held in satoshis, from which
+ * payouts are reserved without a network round trip.
+ *
+ * Reservations are lock-free compare-and-set subtractions, so concurrent
+ * pushes each pay out a fraction of what the other left behind rather than
+ * of the same balance.  The ledger is reconciled with Coinbase periodically:
+ * the fetched balance, less payouts that are still in flight or that were
+ * confirmed after the fetch began, becomes the new available balance.
+ * The balance and exchange rate are fetched concurrently, and concurrent
+ * reconciliations share a single round of fetches.
+ *
+ * Stopping the ledger shuts down the threads those fetches run on.
+ *
+ * @author Moxie Marlinspike
+ */
+public class BalanceLedger implements Managed {
+
+  private final Logger logger = LoggerFactory.getLogger(BalanceLedger.class);
+
+  private final ExecutorService          fetcher;
+  private final SingleFlight<BigDecimal> balanceFetch;
+  private final SingleFlight<BigDecimal> exchangeRateFetch;
+  private final SingleFlight<Void>       reconciliation;
+
+  private final AdvancedAtomicLong available = new AdvancedAtomicLong(0);
+  private final AtomicLong         pending   = new AtomicLong(0);
+  private final AtomicLong         confirmed = new AtomicLong(0);
+
+  private volatile boolean        reconciled;
+  private volatile ConversionRate exchangeRate;
+
+  public BalanceLedger(CoinbaseClient coinbaseClient) {
+    this(coinbaseClient, new MetricRegistry());
+  }
+
+  public BalanceLedger(final CoinbaseClient coinbaseClient, MetricRegistry metricRegistry) {
+    this.fetcher = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                                                                           .setNameFormat("ledger-fetch-%d")
+                                                                           .build());
+
+    this.balanceFetch = new SingleFlight<BigDecimal>(metricRegistry.timer(name(BalanceLedger.class, "balance", "latency"))) {
+      @Override
+      protected BigDecimal load() throws IOException {
+        return coinbaseClient.getAccountBalance();
+      }
+    };
+
+    this.exchangeRateFetch = new SingleFlight<BigDecimal>(metricRegistry.timer(name(BalanceLedger.class, "exchange-rate", "latency"))) {
+      @Override
+      protected BigDecimal load() throws IOException {
+        return coinbaseClient.getExchangeRate();
+      }
+    };
+
+    this.reconciliation = new SingleFlight<Void>(metricRegistry.timer(name(BalanceLedger.class, "reconcile", "latency"))) {
+      @Override
+      protected Void load() throws IOException {
+        long               confirmedMark = confirmed.get();
+        Future<BigDecimal> rate          = exchangeRateFetch.start(fetcher);
+        BigDecimal         balance       = balanceFetch.get();
+        BigDecimal         latestRate    = SingleFlight.await(rate);
+
+        reconcile(Money.toSatoshis(balance), latestRate == null ? null : ConversionRate.valueOf(latestRate), confirmedMark);
+        return null;
+      }
+    };
+  }
+
+  @Override
+  public void start() throws Exception {}
+
+  @Override
+  public void stop() throws Exception {
+    fetcher.shutdownNow();
+  }
+
+  /**
+   * Fetches the current balance and exchange rate from Coinbase, at once,
+   * and replaces the local view with them.  A caller that arrives while a
+   * reconciliation is already running shares its result.
+   */
+  public void reconcile() throws IOException {
+    reconciliation.get();
+  }
+
+  private void reconcile(long coinbaseSatoshis, ConversionRate rate, long confirmedMark) {
+    while (true) {
+      long current = available.get();
+      long target  = coinbaseSatoshis - pending.get() - (confirmed.get() - confirmedMark);
+
+      if (available.compareAndSet(current, Math.max(target, 0))) {
+        break;
+      }
+    }
+
+    this.exchangeRate = rate;
+    this.reconciled   = true;
+
+    logger.debug("Reconciled ledger balance: " + getBalance().toPlainString());
+  }
+
+  public BigDecimal getBalance() {
+    return Money.fromSatoshis(available.get());
+  }
+
+  public long getBalanceSatoshis() {
+    return available.get();
+  }
+
+  public ConversionRate getExchangeRate() throws IOException {
+    ensureReconciled();
+    return exchangeRate;
+  }
+
+  /**
+   * Atomically reserves payoutRate of the available balance, rounded down
+   * to the satoshi.  The reservation must later be confirmed or released.
+   */
+  public Reservation reserve(BigDecimal payoutRate) throws IOException {
+    return reserve(Money.toPartsPerBillion(payoutRate));
+  }
+
+  /**
+   * @param payoutRatePpb The payout rate in parts per billion.
+   */
+  public Reservation reserve(long payoutRatePpb) throws IOException {
+    ensureReconciled();
+
+    while (true) {
+      long current = available.get();
+      long amount  = Money.fraction(current, payoutRatePpb);
+
+      // Count the reservation as pending before taking it from the available
+      // balance, so that a concurrent reconcile can only ever undercount.
+      pending.addAndGet(amount);
+
+      if (available.compareAndSet(current, current - amount)) {
+        return new Reservation(amount);
+      }
+
+      pending.addAndGet(-amount);
+    }
+  }
+
+  /**
+   * Reserves a payout whose amount was fixed by an earlier reservation,
+   * such as one being retried.  Only as much as is available is taken from
+   * the balance, so the reservation may be for less than satoshis.
+   */
+  public Reservation hold(long satoshis) {
+    while (true) {
+      long current = available.get();
+      long amount  = Math.max(Math.min(satoshis, current), 0);
+
+      pending.addAndGet(amount);
+
+      if (available.compareAndSet(current, current - amount)) {
+        return new Reservation(amount);
+      }
+
+      pending.addAndGet(-amount);
+    }
+  }
+
+  private void ensureReconciled() throws IOException {
+    if (!reconciled) {
+      synchronized (this) {
+        if (!reconciled) reconcile();
+      }
+    }
+  }
+
+  public class Reservation {
+
+    private final long satoshis;
+
+    private Reservation(long satoshis) {
+      this.satoshis = satoshis;
+    }
+
+    public long getSatoshis() {
+      return satoshis;
+    }
+
+    public BigDecimal getAmount() {
+      return Money.fromSatoshis(satoshis);
+    }
+
+    public boolean isViable() {
+      return satoshis > 0;
+    }
+
+    /**
+     * The payout was sent, and will be reflected in the next Coinbase balance.
+     */
+    public void confirm() {
+      confirmed.addAndGet(satoshis);
+      pending.addAndGet(-satoshis);
+    }
+
+    /**
+     * The payout was not sent, so its amount is available again.
+     */
+    public void release() {
+      available.addAndGet(satoshis);
+      pending.addAndGet(-satoshis);
+    }
+  }
+}
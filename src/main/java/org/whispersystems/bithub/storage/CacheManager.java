@@ -1,160 +1,467 @@
 package org.whispersystems.bithub.storage;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ocpsoft.prettytime.PrettyTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.bithub.client.CoinbaseClient;
 import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.CacheConfiguration;
 import org.whispersystems.bithub.config.RepositoryConfiguration;
-import org.whispersystems.bithub.entities.CoinbaseTransaction;
+import org.whispersystems.bithub.entities.Commit;
 import org.whispersystems.bithub.entities.Payment;
 import org.whispersystems.bithub.entities.Repository;
 import org.whispersystems.bithub.entities.Transaction;
+import org.whispersystems.bithub.payouts.PayoutListener;
 import org.whispersystems.bithub.util.Badge;
+import org.whispersystems.bithub.util.ConversionRate;
+import org.whispersystems.bithub.util.Money;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.text.ParseException;
-import java.util.LinkedList;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.dropwizard.lifecycle.Managed;
 
-public class CacheManager implements Managed {
+import static com.codahale.metrics.MetricRegistry.name;
 
-  private static final int UPDATE_FREQUENCY_MILLIS = 60 * 1000;
+/**
+ * Caches the data shown on the dashboard and badges.
+ *
+ * The balance, recent transactions, and repository metadata are each
+ * reloaded by their own {@link RefreshJob}, with its own interval and
+ * timeout, so that a slow or failing upstream only leaves its own dataset
+ * stale.  As a {@link PayoutListener}, it also applies payments made by
+ * this instance straight to the cached balance and transactions, so that
+ * polling is only needed to reconcile with upstream.  Repositories are
+ * fetched concurrently, and each one that fails keeps its last known
+ * metadata.
+ *
+ * All of the cached data is published together as one immutable
+ * {@link CacheSnapshot}, so that readers always see a consistent view.
+ *
+ * When a directory is configured, the cached data is written there after
+ * every reload.  On startup, that snapshot is served straight away and
+ * reloaded in the background, so that a slow upstream doesn't hold up
+ * the server; without one, the first load happens before startup
+ * completes.
+ *
+ * @author Moxie Marlinspike
+ */
+public class CacheManager implements Managed, PayoutListener {
 
-  private final Logger                   logger   = LoggerFactory.getLogger(CacheManager.class);
-  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+  private static final int    RECENT_TRANSACTIONS = 10;
+  private static final String SNAPSHOT_NAME       = "snapshot.json";
+
+  private final Logger                   logger    = LoggerFactory.getLogger(CacheManager.class);
+  private final ObjectMapper             mapper    = new ObjectMapper();
+  private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
+  private final ExecutorService          workers   = Executors.newCachedThreadPool();
+  private final ExecutorService          updater   = Executors.newSingleThreadExecutor();
+
+  private final ExecutorService         repositoryFetcher;
+  private final Map<String, Repository> knownRepositories = new ConcurrentHashMap<>();
+
+  private final File          directory;
+  private final Object        saveLock           = new Object();
+  private final AtomicBoolean firstRequest       = new AtomicBoolean(false);
+  private final AtomicLong    timeToFirstRequest = new AtomicLong(0);
+
+  private volatile CacheSnapshot snapshot = CacheSnapshot.create();
+  private          long          savedVersion;
 
-  private final CoinbaseClient                coinbaseClient;
   private final GithubClient                  githubClient;
-  private final BigDecimal                    payoutRate;
+  private final TransactionSync               transactionSync;
+  private final BalanceLedger                 ledger;
+  private final long                          payoutRatePpb;
   private final List<RepositoryConfiguration> repositories;
 
-  private AtomicReference<CurrentPayment>    cachedPaymentStatus;
-  private AtomicReference<List<Transaction>> cachedTransactions;
-  private AtomicReference<List<Repository>>  cachedRepositories;
+  private final RefreshJob<CurrentPayment>    cachedPaymentStatus;
+  private final RefreshJob<List<Transaction>> cachedTransactions;
+  private final RefreshJob<List<Repository>>  cachedRepositories;
 
   public CacheManager(CoinbaseClient coinbaseClient,
                       GithubClient githubClient,
+                      BalanceLedger ledger,
                       List<RepositoryConfiguration> repositories,
                       BigDecimal payoutRate)
   {
-    this.coinbaseClient = coinbaseClient;
-    this.githubClient   = githubClient;
-    this.payoutRate     = payoutRate;
-    this.repositories   = repositories;
+    this(coinbaseClient, githubClient, ledger, repositories, payoutRate,
+         new CommitDescriptionCache(githubClient, null, 10000, new MetricRegistry()),
+         new CacheConfiguration(), new MetricRegistry());
+  }
+
+  public CacheManager(CoinbaseClient coinbaseClient,
+                      GithubClient githubClient,
+                      BalanceLedger ledger,
+                      List<RepositoryConfiguration> repositories,
+                      BigDecimal payoutRate,
+                      CommitDescriptionCache descriptions,
+                      CacheConfiguration config,
+                      MetricRegistry metricRegistry)
+  {
+    this.githubClient  = githubClient;
+    this.ledger        = ledger;
+    this.payoutRatePpb = Money.toPartsPerBillion(payoutRate);
+    this.repositories  = repositories;
+
+    this.transactionSync   = new TransactionSync(coinbaseClient, descriptions, ledger, RECENT_TRANSACTIONS);
+    this.repositoryFetcher = Executors.newFixedThreadPool(config.getParallelism());
+    this.directory         = config.isPersistent() ? new File(config.getDirectory()) : null;
+
+    metricRegistry.register(name(CacheManager.class, "time-to-first-request"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return timeToFirstRequest.get();
+      }
+    });
+
+    this.cachedPaymentStatus = new RefreshJob<CurrentPayment>("balance",
+                                                              config.getBalance().getInterval().toMilliseconds(),
+                                                              config.getBalance().getTimeout().toMilliseconds(),
+                                                              metricRegistry)
+    {
+      @Override
+      protected CurrentPayment load() throws IOException {
+        return createCurrentPaymentForBalance();
+      }
+
+      @Override
+      protected void onUpdated(CurrentPayment result) {
+        publishPayment(result);
+        saveSnapshot();
+      }
+    };
+
+    this.cachedTransactions = new RefreshJob<List<Transaction>>("transactions",
+                                                                config.getTransactions().getInterval().toMilliseconds(),
+                                                                config.getTransactions().getTimeout().toMilliseconds(),
+                                                                metricRegistry)
+    {
+      @Override
+      protected List<Transaction> load() throws IOException {
+        return transactionSync.sync();
+      }
+
+      @Override
+      protected void onUpdated(List<Transaction> result) {
+        publishTransactions(result);
+        saveSnapshot();
+      }
+    };
+
+    this.cachedRepositories = new RefreshJob<List<Repository>>("repositories",
+                                                               config.getRepositories().getInterval().toMilliseconds(),
+                                                               config.getRepositories().getTimeout().toMilliseconds(),
+                                                               metricRegistry)
+    {
+      @Override
+      protected List<Repository> load() throws IOException {
+        return createRepositories(CacheManager.this.githubClient, CacheManager.this.repositories);
+      }
+
+      @Override
+      protected void onUpdated(List<Repository> result) {
+        publishRepositories(result);
+        saveSnapshot();
+      }
+    };
   }
 
   @Override
   public void start() throws Exception {
-    this.cachedPaymentStatus = new AtomicReference<>(createCurrentPaymentForBalance(coinbaseClient));
-    this.cachedTransactions  = new AtomicReference<>(createRecentTransactions(coinbaseClient));
-    this.cachedRepositories  = new AtomicReference<>(createRepositories(githubClient, repositories));
+    if (loadSnapshot()) {
+      cachedPaymentStatus.schedule(scheduler, workers, 0);
+      cachedTransactions.schedule(scheduler, workers, 0);
+      cachedRepositories.schedule(scheduler, workers, 0);
+      return;
+    }
+
+    cachedPaymentStatus.refresh();
+    cachedTransactions.refresh();
+    cachedRepositories.refresh();
 
-    initializeUpdates(coinbaseClient, githubClient, repositories);
+    cachedPaymentStatus.schedule(scheduler, workers);
+    cachedTransactions.schedule(scheduler, workers);
+    cachedRepositories.schedule(scheduler, workers);
   }
 
   @Override
   public void stop() throws Exception {
-    this.executor.shutdownNow();
+    this.scheduler.shutdownNow();
+    this.workers.shutdownNow();
+    this.updater.shutdownNow();
+    this.repositoryFetcher.shutdownNow();
+  }
+
+  /**
+   * @return A consistent view of all of the cached data.
+   */
+  public CacheSnapshot getSnapshot() {
+    recordFirstRequest();
+    return snapshot;
   }
 
   public List<Transaction> getRecentTransactions() {
-    return cachedTransactions.get();
+    return getSnapshot().getTransactions();
   }
 
   public CurrentPayment getCurrentPaymentAmount() {
-    return cachedPaymentStatus.get();
+    return getSnapshot().getPayment();
   }
 
   public List<Repository> getRepositories() {
-    return cachedRepositories.get();
+    return getSnapshot().getRepositories();
   }
 
-  public void initializeUpdates(final CoinbaseClient coinbaseClient,
-                                final GithubClient githubClient,
-                                final List<RepositoryConfiguration> repoConfigs)
-  {
-    executor.scheduleAtFixedRate(new Runnable() {
+  /**
+   * Applies the payment on the update thread, so that rendering badges
+   * never holds up a payout.
+   */
+  @Override
+  public void onPaymentSent(final Commit commit, final long satoshis, final ConversionRate exchangeRate) {
+    update(new Runnable() {
       @Override
       public void run() {
-        try {
-          CurrentPayment    currentPayment = createCurrentPaymentForBalance(coinbaseClient);
-          List<Transaction> transactions   = createRecentTransactions      (coinbaseClient);
-          List<Repository>  repositories   = createRepositories(githubClient, repoConfigs);
+        String      sha         = commit.getSha();
+        Transaction transaction = new Transaction(commit.getAuthor().getUsername(),
+                                                 Money.formatCents(exchangeRate.toCents(satoshis)),
+                                                 commit.getUrl(),
+                                                 sha.length() > 8 ? sha.substring(0, 8) : sha,
+                                                 new PrettyTime().format(new Date()),
+                                                 commit.getMessage());
 
-          cachedPaymentStatus.set(currentPayment);
-          cachedTransactions.set(transactions);
-          cachedRepositories.set(repositories);
+        publishTransactions(transactionSync.addProvisional(transaction));
+        updatePayment();
+      }
+    });
+  }
 
-        } catch (IOException e) {
-          logger.warn("Failed to update badge", e);
-        }
+  @Override
+  public void onBalanceChanged() {
+    update(new Runnable() {
+      @Override
+      public void run() {
+        updatePayment();
       }
-    }, UPDATE_FREQUENCY_MILLIS, UPDATE_FREQUENCY_MILLIS, TimeUnit.MILLISECONDS);
+    });
+  }
+
+  private void update(Runnable update) {
+    try {
+      updater.execute(update);
+    } catch (RejectedExecutionException e) {
+      logger.warn("Cache stopped, dropping update");
+    }
+  }
+
+  private void updatePayment() {
+    try {
+      publishPayment(createCurrentPayment());
+    } catch (IOException e) {
+      logger.warn("Failed to update badge", e);
+    }
   }
 
-  private List<Repository> createRepositories(GithubClient githubClient,
+  /**
+   * Fetches every configured repository at once, up to the configured
+   * parallelism.  A repository that can't be fetched keeps its last known
+   * metadata, or is left out if it has never been fetched.
+   */
+  private List<Repository> createRepositories(final GithubClient githubClient,
                                               List<RepositoryConfiguration> configured)
+      throws IOException
   {
-    List<Repository> repositoryList = new LinkedList<>();
+    List<Future<Repository>> fetches        = new ArrayList<>(configured.size());
+    List<Repository>         repositoryList = new ArrayList<>(configured.size());
 
-    for (RepositoryConfiguration repository : configured) {
-      repositoryList.add(githubClient.getRepository(repository.getUrl()));
+    for (final RepositoryConfiguration repository : configured) {
+      fetches.add(repositoryFetcher.submit(new Callable<Repository>() {
+        @Override
+        public Repository call() throws Exception {
+          return githubClient.getRepository(repository.getUrl());
+        }
+      }));
+    }
+
+    try {
+      for (int i=0;i<configured.size();i++) {
+        String     url = configured.get(i).getUrl();
+        Repository fetched;
+
+        try {
+          fetched = fetches.get(i).get();
+          knownRepositories.put(url, fetched);
+        } catch (ExecutionException e) {
+          logger.warn("Failed to refresh repository: " + url, e.getCause());
+          fetched = knownRepositories.get(url);
+        }
+
+        if (fetched != null) {
+          repositoryList.add(fetched);
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while refreshing repositories");
+    } finally {
+      for (Future<Repository> fetch : fetches) {
+        fetch.cancel(true);
+      }
     }
 
     return repositoryList;
   }
 
-  private CurrentPayment createCurrentPaymentForBalance(CoinbaseClient coinbaseClient)
-      throws IOException
-  {
-    BigDecimal currentBalance = coinbaseClient.getAccountBalance();
-    BigDecimal paymentBtc     = currentBalance.multiply(payoutRate);
-    BigDecimal exchangeRate   = coinbaseClient.getExchangeRate();
-    BigDecimal paymentUsd     = paymentBtc.multiply(exchangeRate);
+  private CurrentPayment createCurrentPaymentForBalance() throws IOException {
+    ledger.reconcile();
+    return createCurrentPayment();
+  }
 
-    paymentUsd = paymentUsd.setScale(2, RoundingMode.CEILING);
-    return new CurrentPayment(Badge.createFor(paymentUsd.toPlainString()),
-                              Badge.createSmallFor(paymentUsd.toPlainString()),
-                              new Payment(paymentUsd.toPlainString()));
+  private CurrentPayment createCurrentPayment() throws IOException {
+    long           paymentSatoshis = Money.fraction(ledger.getBalanceSatoshis(), payoutRatePpb);
+    ConversionRate exchangeRate    = ledger.getExchangeRate();
+
+    return createCurrentPayment(Money.formatCents(exchangeRate.toCents(paymentSatoshis)));
   }
 
-  private List<Transaction> createRecentTransactions(CoinbaseClient coinbaseClient)
-      throws IOException
-  {
-    List<CoinbaseTransaction> recentTransactions = coinbaseClient.getRecentTransactions();
-    BigDecimal                exchangeRate       = coinbaseClient.getExchangeRate();
-    List<Transaction>         transactions       = new LinkedList<>();
+  private CurrentPayment createCurrentPayment(String paymentUsd) throws IOException {
+    return new CurrentPayment(Badge.createFor(paymentUsd),
+                              Badge.createSmallFor(paymentUsd),
+                              new Payment(paymentUsd));
+  }
+
+  private void recordFirstRequest() {
+    if (!firstRequest.get() && firstRequest.compareAndSet(false, true)) {
+      timeToFirstRequest.set(System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+  }
+
+  private boolean loadSnapshot() {
+    if (directory == null) {
+      return false;
+    }
+
+    File file = new File(directory, SNAPSHOT_NAME);
+
+    if (!file.exists()) {
+      return false;
+    }
+
+    try {
+      StoredSnapshot stored = mapper.readValue(file, StoredSnapshot.class);
+
+      if (stored.payment == null || stored.transactions == null || stored.repositories == null) {
+        return false;
+      }
+
+      synchronized (this) {
+        snapshot = new CacheSnapshot(snapshot.getEpoch(), stored.version, stored.timestamp,
+                                     createCurrentPayment(stored.payment),
+                                     stored.transactions, stored.repositories);
+      }
+
+      logger.info("Serving cached snapshot until refreshed: " + file);
+      return true;
+    } catch (IOException e) {
+      logger.warn("Unreadable cache snapshot: " + file, e);
+      return false;
+    }
+  }
+
+  private synchronized void publishPayment(CurrentPayment payment) {
+    snapshot = snapshot.withPayment(payment);
+  }
+
+  private synchronized void publishTransactions(List<Transaction> transactions) {
+    snapshot = snapshot.withTransactions(transactions);
+  }
+
+  private synchronized void publishRepositories(List<Repository> repositories) {
+    snapshot = snapshot.withRepositories(repositories);
+  }
+
+  private void saveSnapshot() {
+    if (directory == null) {
+      return;
+    }
+
+    synchronized (saveLock) {
+      CacheSnapshot current = snapshot;
+
+      if (!current.isComplete() || current.getVersion() <= savedVersion) {
+        return;
+      }
 
-    for (CoinbaseTransaction coinbaseTransaction : recentTransactions) {
       try {
-        if (coinbaseTransaction.isSentTransaction()) {
-          CoinbaseTransactionParser parser      = new CoinbaseTransactionParser(coinbaseTransaction);
-          String                    url         = parser.parseUrlFromMessage();
-          String                    sha         = parser.parseShaFromUrl(url);
-          String                    description = githubClient.getCommitDescription(url);
-
-          transactions.add(new Transaction(parser.parseDestinationFromMessage(),
-                                           parser.parseAmountInDollars(exchangeRate),
-                                           url, sha, parser.parseTimestamp(),
-                                           description));
-
-          if (transactions.size() >= 10)
-            break;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+          throw new IOException("Unable to create cache snapshot directory: " + directory);
         }
-      } catch (ParseException e) {
-        logger.warn("Parse", e);
+
+        File   temporary = new File(directory, SNAPSHOT_NAME + ".tmp");
+        byte[] encoded   = mapper.writeValueAsBytes(new StoredSnapshot(current));
+
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+          out.write(encoded);
+          out.getFD().sync();
+        }
+
+        Files.move(temporary.toPath(), new File(directory, SNAPSHOT_NAME).toPath(),
+                   StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        savedVersion = current.getVersion();
+      } catch (IOException e) {
+        logger.warn("Failed to save cache snapshot", e);
       }
     }
-
-    return transactions;
   }
 
+  private static class StoredSnapshot {
+
+    @JsonProperty
+    private long version;
+
+    @JsonProperty
+    private long timestamp;
+
+    @JsonProperty
+    private String payment;
+
+    @JsonProperty
+    private List<Transaction> transactions;
+
+    @JsonProperty
+    private List<Repository> repositories;
+
+    public StoredSnapshot() {}
+
+    public StoredSnapshot(CacheSnapshot snapshot) {
+      this.version      = snapshot.getVersion();
+      this.timestamp    = snapshot.getTimestamp();
+      this.payment      = snapshot.getPayment().getEntity().getPayment();
+      this.transactions = snapshot.getTransactions();
+      this.repositories = snapshot.getRepositories();
+    }
+  }
 }
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.entities.Transaction;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An immutable, consistent view of all of the data shown on the dashboard
+ * and badges.
+ *
+ * Every change to any part of it produces a new snapshot with a higher
+ * version, while replacing a part with equal data keeps the current one.
+ * Versions are only ordered within an epoch, which is chosen at random
+ * for each process, so the tag of a snapshot is never reused by another
+ * run or another instance with different data.
+ *
+ * @author Moxie Marlinspike
+ */
+public class CacheSnapshot {
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final String            epoch;
+  private final long              version;
+  private final long              timestamp;
+  private final CurrentPayment    payment;
+  private final List<Transaction> transactions;
+  private final List<Repository>  repositories;
+
+  public CacheSnapshot(String epoch, long version, long timestamp, CurrentPayment payment,
+                       List<Transaction> transactions, List<Repository> repositories)
+  {
+    this.epoch        = epoch;
+    this.version      = version;
+    this.timestamp    = timestamp;
+    this.payment      = payment;
+    this.transactions = transactions == null ? null : Collections.unmodifiableList(transactions);
+    this.repositories = repositories == null ? null : Collections.unmodifiableList(repositories);
+  }
+
+  /**
+   * @return An empty snapshot that starts a new epoch.
+   */
+  public static CacheSnapshot create() {
+    return new CacheSnapshot(Long.toString(RANDOM.nextLong() & Long.MAX_VALUE, 36), 0, 0, null, null, null);
+  }
+
+  public CacheSnapshot withPayment(CurrentPayment payment) {
+    if (payment != null && this.payment != null &&
+        payment.getEntity().getPayment().equals(this.payment.getEntity().getPayment()))
+    {
+      return this;
+    }
+
+    return new CacheSnapshot(epoch, version + 1, System.currentTimeMillis(), payment, transactions, repositories);
+  }
+
+  public CacheSnapshot withTransactions(List<Transaction> transactions) {
+    if (Objects.equals(transactions, this.transactions)) {
+      return this;
+    }
+
+    return new CacheSnapshot(epoch, version + 1, System.currentTimeMillis(), payment, transactions, repositories);
+  }
+
+  public CacheSnapshot withRepositories(List<Repository> repositories) {
+    if (Objects.equals(repositories, this.repositories)) {
+      return this;
+    }
+
+    return new CacheSnapshot(epoch, version + 1, System.currentTimeMillis(), payment, transactions, repositories);
+  }
+
+  /**
+   * @return true once every part of the snapshot has been loaded.
+   */
+  public boolean isComplete() {
+    return payment != null && transactions != null && repositories != null;
+  }
+
+  public String getEpoch() {
+    return epoch;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return An identifier for this snapshot's data that is unique across
+   *         restarts and instances, for use as an entity tag.
+   */
+  public String getTag() {
+    return epoch + "." + version;
+  }
+
+  /**
+   * @return When this snapshot was built, in milliseconds since the epoch.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public CurrentPayment getPayment() {
+    return payment;
+  }
+
+  public List<Transaction> getTransactions() {
+    return transactions;
+  }
+
+  public List<Repository> getRepositories() {
+    return repositories;
+  }
+}
@@ -3,9 +3,9 @@ package org.whispersystems.bithub.storage;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.ocpsoft.prettytime.PrettyTime;
 import org.whispersystems.bithub.entities.CoinbaseTransaction;
+import org.whispersystems.bithub.util.ConversionRate;
+import org.whispersystems.bithub.util.Money;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 
@@ -17,11 +17,8 @@ public class CoinbaseTransactionParser {
     this.coinbaseTransaction = coinbaseTransaction;
   }
 
-  public String parseAmountInDollars(BigDecimal exchangeRate) {
-    return new BigDecimal(coinbaseTransaction.getAmount()).abs()
-                                                          .multiply(exchangeRate)
-                                                          .setScale(2, RoundingMode.CEILING)
-                                                          .toPlainString();
+  public String parseAmountInDollars(ConversionRate exchangeRate) {
+    return Money.formatCents(exchangeRate.toCents(Math.abs(coinbaseTransaction.getSatoshis())));
   }
 
   public String parseTimestamp() throws ParseException {
@@ -52,7 +49,12 @@ public class CoinbaseTransactionParser {
     String message = StringEscapeUtils.unescapeHtml4(coinbaseTransaction.getNotes());
     int urlIndex = message.indexOf("https://");
 
-    return message.substring(urlIndex).trim();
+    if (urlIndex == -1) {
+      throw new ParseException("No url", 0);
+    }
+
+    String[] urls = message.substring(urlIndex).trim().split("\\s+");
+    return urls[0];
   }
 
   public String parseShaFromUrl(String url) throws ParseException {
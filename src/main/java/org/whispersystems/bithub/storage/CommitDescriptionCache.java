@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.GithubClient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caches commit messages by SHA in front of the GitHub API.
+ *
+ * Commits are immutable, so entries never expire; the cache is only
+ * bounded in size, evicting the least recently used descriptions.  When a
+ * directory is configured, the cache is written there on shutdown and
+ * loaded again on startup, so that a restart doesn't refetch every
+ * description on the dashboard.
+ *
+ * @author Moxie Marlinspike
+ */
+public class CommitDescriptionCache implements Managed {
+
+  private static final String FILE_NAME = "descriptions.json";
+
+  private final Logger       logger = LoggerFactory.getLogger(CommitDescriptionCache.class);
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final GithubClient          githubClient;
+  private final File                  directory;
+  private final Cache<String, String> descriptions;
+
+  private final Counter hits;
+  private final Counter misses;
+
+  /**
+   * @param directory The directory to persist the cache in, or null to keep
+   *                  it in memory only.
+   * @param capacity  The maximum number of descriptions held.
+   */
+  public CommitDescriptionCache(GithubClient githubClient, File directory, int capacity,
+                                MetricRegistry metricRegistry)
+  {
+    this.githubClient = githubClient;
+    this.directory    = directory;
+    this.descriptions = CacheBuilder.newBuilder()
+                                    .maximumSize(capacity)
+                                    .build();
+
+    this.hits   = metricRegistry.counter(name(CommitDescriptionCache.class, "hits"));
+    this.misses = metricRegistry.counter(name(CommitDescriptionCache.class, "misses"));
+
+    metricRegistry.register(name(CommitDescriptionCache.class, "size"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return descriptions.size();
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    if (directory == null) {
+      return;
+    }
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create description cache directory: " + directory);
+    }
+
+    File file = new File(directory, FILE_NAME);
+
+    if (file.exists()) {
+      try {
+        descriptions.putAll(mapper.<Map<String, String>>readValue(file, new TypeReference<Map<String, String>>() {}));
+      } catch (IOException e) {
+        logger.warn("Unreadable description cache: " + file, e);
+      }
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (directory == null) {
+      return;
+    }
+
+    File file      = new File(directory, FILE_NAME);
+    File temporary = new File(directory, FILE_NAME + ".tmp");
+
+    try (FileOutputStream out = new FileOutputStream(temporary)) {
+      out.write(mapper.writeValueAsBytes(new HashMap<>(descriptions.asMap())));
+      out.getFD().sync();
+    }
+
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param commitUrl The commit's GitHub URL, used only on a cache miss.
+   * @param sha       The commit's SHA.
+   * @return The commit's message.
+   */
+  public String getDescription(String commitUrl, String sha) throws IOException {
+    String description = descriptions.getIfPresent(sha);
+
+    if (description != null) {
+      hits.inc();
+      return description;
+    }
+
+    misses.inc();
+    description = githubClient.getCommitDescription(commitUrl);
+
+    if (description != null) {
+      descriptions.put(sha, description);
+    }
+
+    return description;
+  }
+}
@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.whispersystems.bithub.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * A persistent set of the (repository, commit) pairs that have been paid
+ * out, so that a commit which arrives again in a later push, is
+ * cherry-picked, or is redelivered is never paid twice.
+ *
+ * Each pair is reduced to a 64-bit key: the commit SHA folded to 64 bits
+ * and mixed with a hash of the repository URL.  Keys live in a sorted file
+ * of longs that is memory-mapped and binary searched, plus an append-only
+ * log of keys added since it was last rewritten, which is held in memory
+ * as an open-addressed hash set.  A Bloom filter over all keys, probed by
+ * double hashing the key, sits in front of both, so that the common case
+ * of a new commit is answered without touching the mapped file.  The log
+ * is merged into the sorted file on startup and whenever it grows past a
+ * threshold.
+ *
+ * A commit is first claimed, which holds it in memory only, and is then
+ * either confirmed once its payout has been sent or handed off, or
+ * released if it wasn't.  A claim that is lost to a crash before it is
+ * confirmed leaves the commit unpaid, so a replay can claim it again.
+ *
+ * With no directory, the index is kept in memory only.
+ *
+ * @author Moxie Marlinspike
+ */
+public class PaidCommitIndex implements Managed {
+
+  private static final String INDEX_NAME      = "paid.idx";
+  private static final String LOG_NAME        = "paid.log";
+  private static final String COMPACTION_NAME = "paid.compact";
+
+  private static final int MAX_LOGGED_KEYS = 1 << 16;
+  private static final int BLOOM_HASHES    = 7;
+
+  private final Logger logger = LoggerFactory.getLogger(PaidCommitIndex.class);
+
+  private final File      directory;
+  private final int       expectedCommits;
+  private final Set<Long> claimed = new HashSet<>();
+
+  private long[]      bloomFilter;
+  private LongBuffer  sorted = LongBuffer.allocate(0);
+  private long[]      logged = new long[16];
+  private int         loggedCount;
+  private FileChannel log;
+
+  /**
+   * @param directory       The directory to keep the index in, or null.
+   * @param expectedCommits The number of paid commits to size the Bloom filter for.
+   *                        It is resized on compaction if the index outgrows it.
+   */
+  public PaidCommitIndex(File directory, int expectedCommits) {
+    this.directory       = directory;
+    this.expectedCommits = expectedCommits;
+    this.bloomFilter     = createBloomFilter(expectedCommits);
+  }
+
+  @Override
+  public synchronized void start() throws Exception {
+    if (directory == null) {
+      return;
+    }
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create paid commit directory: " + directory);
+    }
+
+    File logFile = new File(directory, LOG_NAME);
+
+    if (logFile.exists()) {
+      try (FileChannel channel = new RandomAccessFile(logFile, "r").getChannel()) {
+        ByteBuffer buffer = ByteBuffer.allocate((int)(channel.size() & ~7L));
+
+        while (buffer.hasRemaining() && channel.read(buffer) != -1);
+        buffer.flip();
+
+        while (buffer.remaining() >= 8) {
+          addLogged(buffer.getLong());
+        }
+      }
+    }
+
+    log = new RandomAccessFile(logFile, "rw").getChannel();
+    compact();
+
+    logger.info("Loaded " + sorted.limit() + " paid commits");
+  }
+
+  @Override
+  public synchronized void stop() throws Exception {
+    if (log != null) {
+      log.close();
+      log = null;
+    }
+  }
+
+  public synchronized boolean isPaid(String repositoryUrl, String sha) {
+    long key = getKey(repositoryUrl, sha);
+
+    return mightContain(key) && (containsLogged(key) || binarySearch(sorted, key));
+  }
+
+  /**
+   * Atomically checks whether a commit has been paid or is being paid, and
+   * claims it if it isn't.  The claim must be confirmed or released.
+   *
+   * @return true if the commit was claimed.
+   */
+  public synchronized boolean claim(String repositoryUrl, String sha) {
+    long key = getKey(repositoryUrl, sha);
+
+    if (claimed.contains(key) || (mightContain(key) && (containsLogged(key) || binarySearch(sorted, key)))) {
+      return false;
+    }
+
+    claimed.add(key);
+    return true;
+  }
+
+  /**
+   * Durably records a claimed commit as paid.
+   */
+  public synchronized void confirm(String repositoryUrl, String sha) throws IOException {
+    long key = getKey(repositoryUrl, sha);
+
+    if (log != null) {
+      ByteBuffer record = ByteBuffer.allocate(8);
+      record.putLong(key).flip();
+
+      while (record.hasRemaining()) log.write(record);
+      log.force(false);
+    }
+
+    claimed.remove(key);
+    addLogged(key);
+    addToBloomFilter(key);
+
+    if (log != null && loggedCount >= MAX_LOGGED_KEYS) {
+      compact();
+    }
+  }
+
+  /**
+   * Gives up a claim on a commit that wasn't paid, so it can be claimed again.
+   */
+  public synchronized void release(String repositoryUrl, String sha) {
+    claimed.remove(getKey(repositoryUrl, sha));
+  }
+
+  /**
+   * Records commits that were paid before the index existed, such as an
+   * imported payout history, with a single write to the log.  Unlike a
+   * claim and confirm, this doesn't guard against the same commits being
+   * paid concurrently, so it is only for seeding the index before payouts
+   * begin.
+   */
+  public synchronized void importPaid(String repositoryUrl, Collection<String> shas)
+      throws IOException
+  {
+    long[] keys  = new long[shas.size()];
+    int    index = 0;
+
+    for (String sha : shas) {
+      keys[index++] = getKey(repositoryUrl, sha);
+    }
+
+    if (log != null) {
+      ByteBuffer records = ByteBuffer.allocate(keys.length * 8);
+      records.asLongBuffer().put(keys);
+
+      while (records.hasRemaining()) log.write(records);
+      log.force(false);
+    }
+
+    for (long key : keys) {
+      addLogged(key);
+      addToBloomFilter(key);
+    }
+
+    if (log != null && loggedCount >= MAX_LOGGED_KEYS) {
+      compact();
+    }
+  }
+
+  public synchronized long size() {
+    return sorted.limit() + loggedCount;
+  }
+
+  /**
+   * Merges the logged keys into a new sorted file, maps it in place of the
+   * old one, and truncates the log.
+   */
+  private void compact() throws IOException {
+    File   indexFile = new File(directory, INDEX_NAME);
+    long[] merged;
+
+    try (FileChannel channel = openIndex(indexFile)) {
+      LongBuffer existing = channel == null ? LongBuffer.allocate(0)
+                                            : channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+      merged = merge(existing, getLoggedKeys());
+    }
+
+    if (loggedCount > 0 || !indexFile.exists()) {
+      File compacted = new File(directory, COMPACTION_NAME);
+
+      try (FileOutputStream out = new FileOutputStream(compacted)) {
+        ByteBuffer buffer = ByteBuffer.allocate(merged.length * 8);
+        buffer.asLongBuffer().put(merged);
+        out.getChannel().write(buffer);
+        out.getFD().sync();
+      }
+
+      Files.move(compacted.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+      log.truncate(0);
+      log.force(true);
+    }
+
+    try (FileChannel channel = openIndex(indexFile)) {
+      sorted = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+    }
+
+    bloomFilter = createBloomFilter(Math.max(expectedCommits, merged.length * 2));
+
+    for (long key : merged) {
+      addToBloomFilter(key);
+    }
+
+    logged      = new long[16];
+    loggedCount = 0;
+  }
+
+  private FileChannel openIndex(File indexFile) throws IOException {
+    if (!indexFile.exists()) return null;
+    return new RandomAccessFile(indexFile, "r").getChannel();
+  }
+
+  private long[] getLoggedKeys() {
+    long[] keys  = new long[loggedCount];
+    int    index = 0;
+
+    for (long key : logged) {
+      if (key != 0) keys[index++] = key;
+    }
+
+    Arrays.sort(keys);
+    return keys;
+  }
+
+  private static long[] merge(LongBuffer existing, long[] added) {
+    long[] merged = new long[existing.limit() + added.length];
+    int    count  = 0;
+    int    i      = 0;
+    int    j      = 0;
+
+    while (i < existing.limit() || j < added.length) {
+      long next;
+
+      if      (j == added.length)           next = existing.get(i++);
+      else if (i == existing.limit())       next = added[j++];
+      else if (existing.get(i) <= added[j]) next = existing.get(i++);
+      else                                  next = added[j++];
+
+      if (count == 0 || merged[count - 1] != next) {
+        merged[count++] = next;
+      }
+    }
+
+    return Arrays.copyOf(merged, count);
+  }
+
+  private static boolean binarySearch(LongBuffer keys, long key) {
+    int low  = 0;
+    int high = keys.limit() - 1;
+
+    while (low <= high) {
+      int  middle = (low + high) >>> 1;
+      long value  = keys.get(middle);
+
+      if      (value < key) low  = middle + 1;
+      else if (value > key) high = middle - 1;
+      else                  return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * About ten bits per expected key, rounded up to a power of two, for a
+   * false positive rate of around 1% at capacity.
+   */
+  private static long[] createBloomFilter(int expectedKeys) {
+    long bits = Long.highestOneBit(Math.max(expectedKeys, 64) * 10L - 1) << 1;
+    return new long[(int)(bits >>> 6)];
+  }
+
+  private void addToBloomFilter(long key) {
+    long mask  = ((long)bloomFilter.length << 6) - 1;
+    long hash  = key * 0x9E3779B97F4A7C15L;
+    long delta = Long.rotateLeft(hash, 31) | 1;
+
+    for (int i=0;i<BLOOM_HASHES;i++) {
+      long bit = hash & mask;
+      bloomFilter[(int)(bit >>> 6)] |= 1L << bit;
+      hash += delta;
+    }
+  }
+
+  private boolean mightContain(long key) {
+    long mask  = ((long)bloomFilter.length << 6) - 1;
+    long hash  = key * 0x9E3779B97F4A7C15L;
+    long delta = Long.rotateLeft(hash, 31) | 1;
+
+    for (int i=0;i<BLOOM_HASHES;i++) {
+      long bit = hash & mask;
+      if ((bloomFilter[(int)(bit >>> 6)] & (1L << bit)) == 0) return false;
+      hash += delta;
+    }
+
+    return true;
+  }
+
+  private boolean containsLogged(long key) {
+    int mask  = logged.length - 1;
+    int index = mix(key) & mask;
+
+    while (logged[index] != 0) {
+      if (logged[index] == key) return true;
+      index = (index + 1) & mask;
+    }
+
+    return false;
+  }
+
+  private void addLogged(long key) {
+    if (containsLogged(key)) return;
+
+    if ((loggedCount + 1) * 2 > logged.length) {
+      long[] previous = logged;
+      logged = new long[previous.length * 2];
+
+      for (long existing : previous) {
+        if (existing != 0) insertLogged(existing);
+      }
+    }
+
+    insertLogged(key);
+    loggedCount++;
+  }
+
+  private void insertLogged(long key) {
+    int mask  = logged.length - 1;
+    int index = mix(key) & mask;
+
+    while (logged[index] != 0) {
+      index = (index + 1) & mask;
+    }
+
+    logged[index] = key;
+  }
+
+  private static int mix(long key) {
+    long mixed = key * 0x9E3779B97F4A7C15L;
+    return (int)(mixed ^ (mixed >>> 32));
+  }
+
+  /**
+   * The SHA folded to 64 bits, mixed with an FNV-1a hash of the lowercased
+   * repository URL.  Never 0, which marks an empty slot.
+   */
+  private static long getKey(String repositoryUrl, String sha) {
+    long hash = 0xcbf29ce484222325L;
+
+    for (int i=0;i<repositoryUrl.length();i++) {
+      hash ^= Character.toLowerCase(repositoryUrl.charAt(i));
+      hash *= 0x100000001b3L;
+    }
+
+    long folded = 0;
+
+    for (int i=0;i<sha.length();i++) {
+      folded = Long.rotateLeft(folded, 4) ^ (Character.digit(sha.charAt(i), 16) & 0xf);
+    }
+
+    long key = folded ^ hash;
+    return key == 0 ? 1 : key;
+  }
+}
@@ -0,0 +1,398 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * An append-only, memory-mapped journal of accepted push events and the
+ * payout steps completed for them, so that unfinished work survives a restart.
+ *
+ * Appends are group committed: a single flusher thread forces the mapped
+ * segment to disk once for every batch of records written while the previous
+ * force was in progress, and each appender waits only for the batch containing
+ * its own record.  When the segment fills up, it is compacted by rewriting the
+ * records of unfinished events into a fresh segment.
+ *
+ * Record format: [int length][int crc32][byte type][long eventId][int dataLength][data]
+ *
+ * @author Moxie Marlinspike
+ */
+public class PushEventJournal implements Managed {
+
+  private static final String SEGMENT_NAME    = "journal.dat";
+  private static final String COMPACTION_NAME = "journal.compact";
+
+  private static final byte TYPE_ACCEPTED  = 1;
+  private static final byte TYPE_PAID      = 2;
+  private static final byte TYPE_COMMENTED = 3;
+  private static final byte TYPE_COMPLETED = 4;
+
+  private static final int RECORD_HEADER_LENGTH = 4 + 4;
+  private static final int RECORD_BODY_OVERHEAD = 1 + 8 + 4;
+
+  private final Logger logger = LoggerFactory.getLogger(PushEventJournal.class);
+
+  private final File directory;
+  private final long initialSegmentSize;
+
+  private final Map<Long, Entry> entries = new LinkedHashMap<>();
+
+  private RandomAccessFile segmentFile;
+  private MappedByteBuffer segment;
+  private long             segmentSize;
+  private long             nextEventId;
+
+  private long    writtenSequence;
+  private long    durableSequence;
+  private boolean running;
+  private Thread  flusher;
+
+  public PushEventJournal(File directory, long segmentSize) {
+    this.directory          = directory;
+    this.initialSegmentSize = segmentSize;
+  }
+
+  @Override
+  public synchronized void start() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create journal directory: " + directory);
+    }
+
+    File file = new File(directory, SEGMENT_NAME);
+
+    this.segmentSize = Math.max(initialSegmentSize, file.length());
+    this.segmentFile = new RandomAccessFile(file, "rw");
+    this.segment     = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+
+    replay();
+    compact();
+
+    logger.info("Journal opened with " + entries.size() + " unfinished push events");
+
+    this.running = true;
+    this.flusher = new Thread(new Flusher(), "journal-flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  @Override
+  public void stop() throws Exception {
+    Thread flusher;
+
+    synchronized (this) {
+      running = false;
+      flusher = this.flusher;
+      notifyAll();
+    }
+
+    if (flusher != null) {
+      flusher.join();
+    }
+
+    synchronized (this) {
+      segment.force();
+      segmentFile.close();
+    }
+  }
+
+  /**
+   * @return The push events that were accepted but never completed, in the order
+   *         they were accepted.
+   */
+  public synchronized List<Entry> getUnfinished() {
+    return new LinkedList<>(entries.values());
+  }
+
+  /**
+   * Durably records an accepted push event.  Returns once the record has
+   * been forced to disk.
+   */
+  public Entry append(String payload) throws IOException {
+    Entry entry;
+    long  sequence;
+
+    synchronized (this) {
+      entry    = new Entry(nextEventId++, payload);
+      sequence = write(TYPE_ACCEPTED, entry.getId(), payload);
+      entries.put(entry.getId(), entry);
+    }
+
+    awaitDurable(sequence);
+    return entry;
+  }
+
+  public void markPaid(Entry entry, String sha) throws IOException {
+    awaitDurable(writeStep(TYPE_PAID, entry, entry.paid, sha));
+  }
+
+  public void markCommented(Entry entry, String sha) throws IOException {
+    awaitDurable(writeStep(TYPE_COMMENTED, entry, entry.commented, sha));
+  }
+
+  /**
+   * Records that all work for an event is done.  Completion doesn't need to be
+   * waited on, since replaying a completed event only repeats steps that are
+   * already marked as done.
+   */
+  public synchronized void markCompleted(Entry entry) throws IOException {
+    write(TYPE_COMPLETED, entry.getId(), "");
+    entries.remove(entry.getId());
+  }
+
+  private synchronized long writeStep(byte type, Entry entry, Set<String> steps, String sha)
+      throws IOException
+  {
+    long sequence = write(type, entry.getId(), sha);
+    steps.add(sha);
+
+    return sequence;
+  }
+
+  private synchronized long write(byte type, long eventId, String data) throws IOException {
+    byte[] record = encode(type, eventId, data.getBytes(Charsets.UTF_8));
+
+    if (segment.remaining() < record.length + RECORD_HEADER_LENGTH) {
+      compact();
+    }
+
+    if (segment.remaining() < record.length + RECORD_HEADER_LENGTH) {
+      throw new IOException("Journal record too large: " + record.length);
+    }
+
+    segment.put(record);
+    notifyAll();
+
+    return ++writtenSequence;
+  }
+
+  private synchronized void awaitDurable(long sequence) throws IOException {
+    try {
+      while (durableSequence < sequence) {
+        if (!running) throw new IOException("Journal is not running");
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  private void replay() {
+    segment.position(0);
+
+    while (segment.remaining() >= RECORD_HEADER_LENGTH) {
+      int start  = segment.position();
+      int length = segment.getInt();
+      int crc    = segment.getInt();
+
+      if (length < RECORD_BODY_OVERHEAD || length > segment.remaining()) {
+        segment.position(start);
+        break;
+      }
+
+      byte[] body = new byte[length];
+      segment.get(body);
+
+      if (crc != checksum(body)) {
+        logger.warn("Truncating torn journal record at offset " + start);
+        segment.position(start);
+        break;
+      }
+
+      ByteBuffer buffer  = ByteBuffer.wrap(body);
+      byte       type    = buffer.get();
+      long       eventId = buffer.getLong();
+      byte[]     data    = new byte[buffer.getInt()];
+      buffer.get(data);
+
+      apply(type, eventId, new String(data, Charsets.UTF_8));
+      nextEventId = Math.max(nextEventId, eventId + 1);
+    }
+  }
+
+  private void apply(byte type, long eventId, String data) {
+    Entry entry = entries.get(eventId);
+
+    switch (type) {
+      case TYPE_ACCEPTED:  entries.put(eventId, new Entry(eventId, data)); break;
+      case TYPE_PAID:      if (entry != null) entry.paid.add(data);        break;
+      case TYPE_COMMENTED: if (entry != null) entry.commented.add(data);   break;
+      case TYPE_COMPLETED: entries.remove(eventId);                        break;
+    }
+  }
+
+  /**
+   * Rewrites the records of all unfinished events into a new segment, growing
+   * it if the live records alone would fill more than half of it, and then
+   * atomically replaces the current segment.
+   */
+  private synchronized void compact() throws IOException {
+    List<byte[]> records   = new LinkedList<>();
+    long         liveBytes = 0;
+
+    for (Entry entry : entries.values()) {
+      records.add(encode(TYPE_ACCEPTED, entry.getId(), entry.getPayload().getBytes(Charsets.UTF_8)));
+
+      for (String sha : entry.paid) {
+        records.add(encode(TYPE_PAID, entry.getId(), sha.getBytes(Charsets.UTF_8)));
+      }
+
+      for (String sha : entry.commented) {
+        records.add(encode(TYPE_COMMENTED, entry.getId(), sha.getBytes(Charsets.UTF_8)));
+      }
+    }
+
+    for (byte[] record : records) {
+      liveBytes += record.length;
+    }
+
+    while (liveBytes * 2 > segmentSize) {
+      segmentSize *= 2;
+    }
+
+    File compacted = new File(directory, COMPACTION_NAME);
+    File current   = new File(directory, SEGMENT_NAME);
+
+    if (compacted.exists() && !compacted.delete()) {
+      throw new IOException("Unable to remove stale compaction file: " + compacted);
+    }
+
+    RandomAccessFile compactedFile    = new RandomAccessFile(compacted, "rw");
+    MappedByteBuffer compactedSegment = compactedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+
+    for (byte[] record : records) {
+      compactedSegment.put(record);
+    }
+
+    compactedSegment.force();
+
+    Files.move(compacted.toPath(), current.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+    segment.force();
+    segmentFile.close();
+
+    this.segmentFile = compactedFile;
+    this.segment     = compactedSegment;
+  }
+
+  private byte[] encode(byte type, long eventId, byte[] data) {
+    ByteBuffer body = ByteBuffer.allocate(RECORD_BODY_OVERHEAD + data.length);
+    body.put(type);
+    body.putLong(eventId);
+    body.putInt(data.length);
+    body.put(data);
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + body.capacity());
+    record.putInt(body.capacity());
+    record.putInt(checksum(body.array()));
+    record.put(body.array());
+
+    return record.array();
+  }
+
+  private int checksum(byte[] body) {
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    return (int)crc.getValue();
+  }
+
+  private class Flusher implements Runnable {
+    @Override
+    public void run() {
+      while (true) {
+        MappedByteBuffer toForce;
+        long             batchSequence;
+
+        synchronized (PushEventJournal.this) {
+          try {
+            while (running && writtenSequence == durableSequence) {
+              PushEventJournal.this.wait();
+            }
+          } catch (InterruptedException e) {
+            return;
+          }
+
+          if (!running && writtenSequence == durableSequence) {
+            return;
+          }
+
+          toForce       = segment;
+          batchSequence = writtenSequence;
+        }
+
+        toForce.force();
+
+        synchronized (PushEventJournal.this) {
+          durableSequence = Math.max(durableSequence, batchSequence);
+          PushEventJournal.this.notifyAll();
+        }
+      }
+    }
+  }
+
+  public static class Entry {
+
+    private final long        id;
+    private final String      payload;
+    private final Set<String> paid      = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> commented = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private Entry(long id, String payload) {
+      this.id      = id;
+      this.payload = payload;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public String getPayload() {
+      return payload;
+    }
+
+    public boolean isPaid(String sha) {
+      return paid.contains(sha);
+    }
+
+    public boolean isCommented(String sha) {
+      return commented.contains(sha);
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A cached value that is reloaded from upstream on its own schedule.
+ *
+ * Each reload runs on a worker thread and is abandoned if it takes longer
+ * than the job's timeout.  A reload that fails, throws, or times out leaves
+ * the last good value in place and is simply tried again at the next
+ * interval, without affecting any other job.  A reload that is still stuck
+ * from a previous interval, because it ignored being interrupted, is not
+ * started a second time until it returns.
+ *
+ * @author Moxie Marlinspike
+ */
+public abstract class RefreshJob<T> implements Runnable {
+
+  private final Logger logger = LoggerFactory.getLogger(RefreshJob.class);
+
+  private final AtomicReference<T> value       = new AtomicReference<>();
+  private final AtomicLong         lastSuccess = new AtomicLong(0);
+  private final AtomicBoolean      running     = new AtomicBoolean(false);
+
+  private final String name;
+  private final long   intervalMillis;
+  private final long   timeoutMillis;
+
+  private final Timer durationTimer;
+  private final Meter failedMeter;
+  private final Meter timedOutMeter;
+
+  private ExecutorService workers;
+
+  public RefreshJob(String name, long intervalMillis, long timeoutMillis,
+                    MetricRegistry metricRegistry)
+  {
+    this.name           = name;
+    this.intervalMillis = intervalMillis;
+    this.timeoutMillis  = timeoutMillis;
+
+    this.durationTimer = metricRegistry.timer(name(RefreshJob.class, name, "duration"));
+    this.failedMeter   = metricRegistry.meter(name(RefreshJob.class, name, "failed"));
+    this.timedOutMeter = metricRegistry.meter(name(RefreshJob.class, name, "timed-out"));
+
+    metricRegistry.register(name(RefreshJob.class, name, "last-success"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return lastSuccess.get();
+      }
+    });
+  }
+
+  /**
+   * Fetches a fresh copy of the value from upstream.
+   */
+  protected abstract T load() throws IOException;
+
+  public T get() {
+    return value.get();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return The time of the last successful reload, in milliseconds since
+   *         the epoch, or 0 if there hasn't been one.
+   */
+  public long getLastSuccess() {
+    return lastSuccess.get();
+  }
+
+  /**
+   * Reloads the value on the calling thread, without a timeout.  Used to
+   * populate the cache before it is first served.
+   */
+  public void refresh() throws IOException {
+    update(loadTimed());
+  }
+
+  public void schedule(ScheduledExecutorService scheduler, ExecutorService workers) {
+    schedule(scheduler, workers, intervalMillis);
+  }
+
+  /**
+   * @param initialDelayMillis The delay before the first reload, after which
+   *                           the job reloads at its interval.
+   */
+  public void schedule(ScheduledExecutorService scheduler, ExecutorService workers,
+                       long initialDelayMillis)
+  {
+    this.workers = workers;
+    scheduler.scheduleWithFixedDelay(this, initialDelayMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void run() {
+    if (!running.compareAndSet(false, true)) {
+      logger.warn("Previous " + name + " refresh still running, skipping");
+      timedOutMeter.mark();
+      return;
+    }
+
+    Reload    reload = new Reload();
+    Future<T> pending;
+
+    try {
+      pending = workers.submit(reload);
+    } catch (RejectedExecutionException e) {
+      running.set(false);
+      throw e;
+    }
+
+    try {
+      update(pending.get(timeoutMillis, TimeUnit.MILLISECONDS));
+    } catch (TimeoutException e) {
+      logger.warn("Refresh of " + name + " timed out after " + timeoutMillis + "ms");
+      timedOutMeter.mark();
+      pending.cancel(true);
+      reload.abandon();
+    } catch (ExecutionException e) {
+      logger.warn("Failed to refresh " + name, e.getCause());
+      failedMeter.mark();
+    } catch (InterruptedException e) {
+      pending.cancel(true);
+      reload.abandon();
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      logger.warn("Failed to refresh " + name, e);
+      failedMeter.mark();
+    }
+  }
+
+  private T loadTimed() throws IOException {
+    Timer.Context timer = durationTimer.time();
+
+    try {
+      return load();
+    } finally {
+      timer.stop();
+    }
+  }
+
+  private void update(T result) {
+    value.set(result);
+    lastSuccess.set(System.currentTimeMillis());
+    onUpdated(result);
+  }
+
+  /**
+   * Called after each successful reload.
+   */
+  protected void onUpdated(T result) {}
+
+  /**
+   * A single reload, which holds the job's running flag until load() has
+   * actually returned rather than until its future is cancelled.
+   */
+  private class Reload implements Callable<T> {
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    @Override
+    public T call() throws Exception {
+      if (!started.compareAndSet(false, true)) {
+        return null;
+      }
+
+      try {
+        return loadTimed();
+      } finally {
+        running.set(false);
+      }
+    }
+
+    /**
+     * Releases the running flag if the reload was cancelled before it started,
+     * since call() then never runs to release it.
+     */
+    private void abandon() {
+      if (started.compareAndSet(false, true)) {
+        running.set(false);
+      }
+    }
+  }
+}
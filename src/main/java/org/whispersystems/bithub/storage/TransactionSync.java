@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.entities.CoinbaseTransaction;
+import org.whispersystems.bithub.entities.CoinbseRecentTransactionsResponse;
+import org.whispersystems.bithub.entities.Transaction;
+import org.whispersystems.bithub.util.ConversionRate;
+import org.whispersystems.bithub.util.RingBuffer;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Keeps the most recent outgoing payments in sync with the Coinbase
+ * transaction history.
+ *
+ * The newest transaction ID seen is remembered between syncs, and history
+ * pages are only fetched until it is reached again, so that a sync with
+ * nothing new costs a single small request.  New payments are parsed once
+ * and added to a fixed-capacity ring buffer.
+ *
+ * Payments made by this instance can be added as soon as they are sent.
+ * They are listed ahead of the synced ones as provisional entries until
+ * the next successful sync, which either lists their Coinbase transaction
+ * in their place or drops them.
+ *
+ * @author Moxie Marlinspike
+ */
+public class TransactionSync {
+
+  private static final int PAGE_SIZE = 25;
+
+  private final Logger logger = LoggerFactory.getLogger(TransactionSync.class);
+
+  private final CoinbaseClient          coinbaseClient;
+  private final CommitDescriptionCache  descriptions;
+  private final BalanceLedger           ledger;
+  private final RingBuffer<Transaction> recent;
+  private final LinkedList<Transaction> provisional = new LinkedList<>();
+
+  private String newestSeenId;
+
+  public TransactionSync(CoinbaseClient coinbaseClient, CommitDescriptionCache descriptions,
+                         BalanceLedger ledger, int capacity)
+  {
+    this.coinbaseClient = coinbaseClient;
+    this.descriptions   = descriptions;
+    this.ledger         = ledger;
+    this.recent         = new RingBuffer<>(capacity);
+  }
+
+  /**
+   * Fetches any transactions newer than the last sync.  If a sync fails
+   * partway through, nothing is added and the next one starts over.
+   *
+   * @return The most recent payments, newest first.
+   */
+  public synchronized List<Transaction> sync() throws IOException {
+    ConversionRate          exchangeRate = ledger.getExchangeRate();
+    LinkedList<Transaction> found        = new LinkedList<>();
+    String                  newestId     = null;
+
+    for (int page=1;;page++) {
+      CoinbseRecentTransactionsResponse response = coinbaseClient.getTransactions(page, PAGE_SIZE);
+      List<CoinbaseTransaction>         history  = response.getTransactions();
+
+      if (page == 1 && !history.isEmpty()) {
+        newestId = history.get(0).getId();
+      }
+
+      if (addNewPayments(history, exchangeRate, found) || page >= response.getNumPages()) {
+        break;
+      }
+    }
+
+    while (!found.isEmpty()) {
+      recent.add(found.removeLast());
+    }
+
+    if (newestId != null) {
+      newestSeenId = newestId;
+    }
+
+    provisional.clear();
+
+    return getRecent();
+  }
+
+  /**
+   * Adds a payment that was just sent, ahead of its Coinbase transaction.
+   *
+   * @return The most recent payments, newest first.
+   */
+  public synchronized List<Transaction> addProvisional(Transaction transaction) {
+    for (Transaction synced : recent.toList()) {
+      if (synced.getCommitUrl().equals(transaction.getCommitUrl())) {
+        return getRecent();
+      }
+    }
+
+    provisional.addFirst(transaction);
+
+    while (provisional.size() > recent.getCapacity()) {
+      provisional.removeLast();
+    }
+
+    return getRecent();
+  }
+
+  private List<Transaction> getRecent() {
+    List<Transaction> merged = new LinkedList<>(provisional);
+
+    for (Transaction transaction : recent.toList()) {
+      if (merged.size() >= recent.getCapacity()) break;
+      merged.add(transaction);
+    }
+
+    return merged;
+  }
+
+  /**
+   * @return true once the newest transaction from the last sync is reached,
+   *         or enough new payments have been found to fill the buffer.
+   */
+  private boolean addNewPayments(List<CoinbaseTransaction> history, ConversionRate exchangeRate,
+                                 List<Transaction> found)
+      throws IOException
+  {
+    for (CoinbaseTransaction coinbaseTransaction : history) {
+      if (newestSeenId != null && newestSeenId.equals(coinbaseTransaction.getId())) {
+        return true;
+      }
+
+      if (found.size() >= recent.getCapacity()) {
+        return true;
+      }
+
+      try {
+        if (coinbaseTransaction.isSentTransaction()) {
+          CoinbaseTransactionParser parser      = new CoinbaseTransactionParser(coinbaseTransaction);
+          String                    url         = parser.parseUrlFromMessage();
+          String                    sha         = parser.parseShaFromUrl(url);
+          String                    description = descriptions.getDescription(url, sha);
+
+          found.add(new Transaction(parser.parseDestinationFromMessage(),
+                                    parser.parseAmountInDollars(exchangeRate),
+                                    url, sha, parser.parseTimestamp(),
+                                    description));
+        }
+      } catch (ParseException e) {
+        logger.warn("Parse", e);
+      }
+    }
+
+    return false;
+  }
+}
@@ -17,49 +17,138 @@
 
 package org.whispersystems.bithub.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.Resources;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
 
+/**
+ * Renders the payment amount badges.
+ *
+ * Each variant's background is decoded, and its font derived, only once.
+ * Renders copy the decoded background, and the encoded results are cached
+ * by variant and price, so that a price that hasn't changed costs nothing
+ * to render again.  Cached badges are shared, and must not be modified.
+ *
+ * @author Moxie Marlinspike
+ */
 public class Badge {
 
-  public static byte[] createFor(String price) throws IOException {
-    byte[]        badgeBackground = Resources.toByteArray(Resources.getResource("assets/badge.png"));
-    BufferedImage bufferedImage   = ImageIO.read(new ByteArrayInputStream(badgeBackground));
-    Graphics2D    graphics        = bufferedImage.createGraphics();
+  private static final int CACHE_SIZE = 256;
 
-    graphics.setFont(new Font("OpenSans", Font.PLAIN, 34));
-    graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                              RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB);
-    graphics.drawString(price + " USD", 86, 45);
-    graphics.dispose();
+  public enum Variant {
+    LARGE("assets/badge.png",       34, 86, 45),
+    SMALL("assets/badge-small.png", 9,  22, 14);
 
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    ImageIO.write(bufferedImage, "png", baos);
+    private final String resource;
+    private final int    fontSize;
+    private final int    x;
+    private final int    y;
 
-    return baos.toByteArray();
+    private Variant(String resource, int fontSize, int x, int y) {
+      this.resource = resource;
+      this.fontSize = fontSize;
+      this.x        = x;
+      this.y        = y;
+    }
+  }
+
+  private static final Map<Variant, Template> templates = new EnumMap<>(Variant.class);
+  private static final Cache<String, byte[]>  rendered  = CacheBuilder.newBuilder()
+                                                                      .maximumSize(CACHE_SIZE)
+                                                                      .build();
+
+  public static byte[] createFor(String price) throws IOException {
+    return create(Variant.LARGE, price);
   }
 
   public static byte[] createSmallFor(String price) throws IOException {
-    byte[]        badgeBackground = Resources.toByteArray(Resources.getResource("assets/badge-small.png"));
-    BufferedImage bufferedImage   = ImageIO.read(new ByteArrayInputStream(badgeBackground));
-    Graphics2D    graphics        = bufferedImage.createGraphics();
+    return create(Variant.SMALL, price);
+  }
 
-    graphics.setFont(new Font("OpenSans", Font.PLAIN, 9));
+  /**
+   * @return The badge for this price, rendered only if it isn't cached.
+   */
+  public static byte[] create(Variant variant, String price) throws IOException {
+    String key   = variant.name() + ":" + price;
+    byte[] badge = rendered.getIfPresent(key);
+
+    if (badge == null) {
+      badge = render(variant, price);
+      rendered.put(key, badge);
+    }
+
+    return badge;
+  }
+
+  /**
+   * @return A newly rendered badge for this price, bypassing the cache.
+   */
+  public static byte[] render(Variant variant, String price) throws IOException {
+    Template      template = getTemplate(variant);
+    BufferedImage image    = template.copyBackground();
+    Graphics2D    graphics = image.createGraphics();
+
+    graphics.setFont(template.font);
     graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
                               RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB);
-    graphics.drawString(price + " USD", 22, 14);
+    graphics.drawString(price + " USD", variant.x, variant.y);
     graphics.dispose();
 
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    ImageIO.write(bufferedImage, "png", baos);
+    ByteArrayOutputStream baos   = new ByteArrayOutputStream(template.encodedSize);
+    ImageWriter           writer = ImageIO.getImageWritersByFormatName("png").next();
+
+    try (ImageOutputStream output = new MemoryCacheImageOutputStream(baos)) {
+      writer.setOutput(output);
+      writer.write(image);
+    } finally {
+      writer.dispose();
+    }
 
     return baos.toByteArray();
   }
 
+  private static synchronized Template getTemplate(Variant variant) throws IOException {
+    Template template = templates.get(variant);
+
+    if (template == null) {
+      byte[]        encoded    = Resources.toByteArray(Resources.getResource(variant.resource));
+      BufferedImage background = ImageIO.read(new ByteArrayInputStream(encoded));
+
+      template = new Template(background, new Font("OpenSans", Font.PLAIN, variant.fontSize), encoded.length);
+      templates.put(variant, template);
+    }
+
+    return template;
+  }
+
+  private static class Template {
+    private final BufferedImage background;
+    private final Font          font;
+    private final int           encodedSize;
+
+    private Template(BufferedImage background, Font font, int encodedSize) {
+      this.background  = background;
+      this.font        = font;
+      this.encodedSize = encodedSize;
+    }
+
+    private BufferedImage copyBackground() {
+      ColorModel colorModel = background.getColorModel();
+      return new BufferedImage(colorModel, background.copyData(null),
+                               colorModel.isAlphaPremultiplied(), null);
+    }
+  }
 }
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An immutable USD per BTC exchange rate, held as a scaled long so that
+ * satoshi amounts can be converted to cents without allocating.
+ *
+ * Conversions round up to the cent, exactly as multiplying the BTC amount
+ * by the rate and rounding with RoundingMode.CEILING does.  Products too
+ * large for a long fall back to that BigDecimal arithmetic.
+ *
+ * @author Moxie Marlinspike
+ */
+public final class ConversionRate {
+
+  private static final int  MAX_SCALE        = 12;
+  private static final long SATOSHIS_PER_CENT = Money.SATOSHIS_PER_BTC / 100;
+
+  private final BigDecimal usdPerBtc;
+  private final long       unscaled;
+  private final long       denominator;
+
+  private ConversionRate(BigDecimal usdPerBtc, long unscaled, long denominator) {
+    this.usdPerBtc   = usdPerBtc;
+    this.unscaled    = unscaled;
+    this.denominator = denominator;
+  }
+
+  public static ConversionRate valueOf(BigDecimal usdPerBtc) {
+    BigDecimal normalized = usdPerBtc.stripTrailingZeros();
+
+    if (normalized.scale() < 0) {
+      normalized = normalized.setScale(0);
+    }
+
+    if (normalized.signum() < 0 || normalized.scale() > MAX_SCALE || normalized.precision() > 18) {
+      return new ConversionRate(usdPerBtc, -1, -1);
+    }
+
+    long denominator = SATOSHIS_PER_CENT;
+
+    for (int i=0;i<normalized.scale();i++) {
+      denominator *= 10;
+    }
+
+    return new ConversionRate(usdPerBtc, normalized.unscaledValue().longValue(), denominator);
+  }
+
+  /**
+   * @return The value of satoshis in cents, rounded towards positive infinity.
+   */
+  public long toCents(long satoshis) {
+    if (unscaled < 0 || (unscaled != 0 && Math.abs(satoshis) > Long.MAX_VALUE / unscaled)) {
+      return Money.fromSatoshis(satoshis).multiply(usdPerBtc)
+                  .setScale(2, RoundingMode.CEILING)
+                  .unscaledValue().longValue();
+    }
+
+    long product = satoshis * unscaled;
+    long cents   = product / denominator;
+
+    if (product > 0 && product % denominator != 0) {
+      cents++;
+    }
+
+    return cents;
+  }
+
+  public BigDecimal toBigDecimal() {
+    return usdPerBtc;
+  }
+
+  @Override
+  public String toString() {
+    return usdPerBtc.toPlainString();
+  }
+}
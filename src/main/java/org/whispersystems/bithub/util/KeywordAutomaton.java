@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton over a fixed set of keywords, each tagged with
+ * a bit flag, that finds every keyword occurrence in a single pass over the
+ * text.
+ *
+ * The automaton is compiled into flat arrays.  ASCII characters are looked
+ * up in a dense table of transitions, with the failure links already folded
+ * in, so that each one costs a single array read.  Other characters follow
+ * each node's sorted transitions and failure links.  Each node carries the
+ * flags of the keywords that end there, both its own and those inherited
+ * through its failure links.
+ *
+ * @author Moxie Marlinspike
+ */
+public class KeywordAutomaton {
+
+  private static final int ROOT        = 0;
+  private static final int ASCII_LIMIT = 128;
+
+  private final int[]  asciiTransitions;
+  private final int[]  transitionOffsets;
+  private final char[] transitionChars;
+  private final int[]  transitionTargets;
+  private final int[]  failure;
+  private final int[]  depth;
+  private final int[]  ownFlags;
+  private final int[]  flags;
+
+  private KeywordAutomaton(int[] asciiTransitions, int[] transitionOffsets, char[] transitionChars,
+                           int[] transitionTargets, int[] failure, int[] depth,
+                           int[] ownFlags, int[] flags)
+  {
+    this.asciiTransitions  = asciiTransitions;
+    this.transitionOffsets = transitionOffsets;
+    this.transitionChars   = transitionChars;
+    this.transitionTargets = transitionTargets;
+    this.failure           = failure;
+    this.depth             = depth;
+    this.ownFlags          = ownFlags;
+    this.flags             = flags;
+  }
+
+  public int start() {
+    return ROOT;
+  }
+
+  /**
+   * @return The state reached from {@code state} by consuming {@code c}.
+   */
+  public int next(int state, char c) {
+    if (c < ASCII_LIMIT) {
+      return asciiTransitions[state * ASCII_LIMIT + c];
+    }
+
+    while (true) {
+      int target = transition(state, c);
+
+      if (target != -1)    return target;
+      if (state == ROOT)   return ROOT;
+
+      state = failure[state];
+    }
+  }
+
+  /**
+   * Consumes {@code text} from {@code offset} onwards, starting in {@code state},
+   * until a keyword with one of the flags in {@code mask} ends.
+   *
+   * @return The index just past the end of that keyword, or -1 if there is none.
+   */
+  public int find(String text, int offset, int state, int mask) {
+    int[] ascii  = asciiTransitions;
+    int[] output = flags;
+    int   length = text.length();
+
+    for (int i=offset;i<length;i++) {
+      char c = text.charAt(i);
+
+      if (c < ASCII_LIMIT) {
+        // From the root, most characters lead straight back to it.  Skipping
+        // them keeps the loop free of dependent table reads.
+        if (state == ROOT && ascii[c] == ROOT) continue;
+        state = ascii[state * ASCII_LIMIT + c];
+      } else {
+        state = next(state, c);
+      }
+
+      if ((output[state] & mask) != 0) {
+        return i + 1;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return The flags of all keywords that end at this state.
+   */
+  public int getFlags(int state) {
+    return flags[state];
+  }
+
+  /**
+   * @return The flags of the keywords that are exactly the text consumed so
+   *         far, given that {@code consumed} characters have been consumed.
+   */
+  public int getPrefixFlags(int state, int consumed) {
+    return depth[state] == consumed ? ownFlags[state] : 0;
+  }
+
+  private int transition(int state, char c) {
+    int low  = transitionOffsets[state];
+    int high = transitionOffsets[state + 1] - 1;
+
+    while (low <= high) {
+      int  middle = (low + high) >>> 1;
+      char value  = transitionChars[middle];
+
+      if      (value < c) low  = middle + 1;
+      else if (value > c) high = middle - 1;
+      else                return transitionTargets[middle];
+    }
+
+    return -1;
+  }
+
+  public static class Builder {
+
+    private final List<TreeMap<Character, Integer>> children = new ArrayList<>();
+    private final List<Integer>                     depths   = new ArrayList<>();
+    private final List<Integer>                     outputs  = new ArrayList<>();
+
+    public Builder() {
+      allocate(0);
+    }
+
+    public Builder add(String keyword, int flag) {
+      if (keyword == null || keyword.isEmpty()) {
+        return this;
+      }
+
+      int node = ROOT;
+
+      for (int i=0;i<keyword.length();i++) {
+        Integer child = children.get(node).get(keyword.charAt(i));
+
+        if (child == null) {
+          child = allocate(i + 1);
+          children.get(node).put(keyword.charAt(i), child);
+        }
+
+        node = child;
+      }
+
+      outputs.set(node, outputs.get(node) | flag);
+      return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public KeywordAutomaton build() {
+      int                           nodes    = children.size();
+      TreeMap<Character, Integer>[] edges    = children.toArray(new TreeMap[nodes]);
+      int[]                         failure  = new int[nodes];
+      int[]                         depth    = new int[nodes];
+      int[]                         ownFlags = new int[nodes];
+      int[]                         flags    = new int[nodes];
+
+      for (int i=0;i<nodes;i++) {
+        depth[i]    = depths.get(i);
+        ownFlags[i] = outputs.get(i);
+        flags[i]    = outputs.get(i);
+      }
+
+      int[]          asciiTransitions = new int[nodes * ASCII_LIMIT];
+      Queue<Integer> queue            = new LinkedList<>(edges[ROOT].values());
+
+      for (Map.Entry<Character, Integer> edge : edges[ROOT].entrySet()) {
+        if (edge.getKey() < ASCII_LIMIT) asciiTransitions[edge.getKey()] = edge.getValue();
+      }
+
+      while (!queue.isEmpty()) {
+        int node = queue.remove();
+
+        // Failure links point to shallower nodes, which breadth-first order
+        // has already finished, so their ASCII rows can be copied as is.
+        System.arraycopy(asciiTransitions, failure[node] * ASCII_LIMIT,
+                         asciiTransitions, node * ASCII_LIMIT, ASCII_LIMIT);
+
+        for (Map.Entry<Character, Integer> edge : edges[node].entrySet()) {
+          if (edge.getKey() < ASCII_LIMIT) asciiTransitions[node * ASCII_LIMIT + edge.getKey()] = edge.getValue();
+        }
+
+        for (Map.Entry<Character, Integer> edge : edges[node].entrySet()) {
+          int child    = edge.getValue();
+          int fallback = failure[node];
+
+          while (fallback != ROOT && !edges[fallback].containsKey(edge.getKey())) {
+            fallback = failure[fallback];
+          }
+
+          Integer target = edges[fallback].get(edge.getKey());
+          failure[child] = target != null ? target : ROOT;
+          flags[child]  |= flags[failure[child]];
+
+          queue.add(child);
+        }
+      }
+
+      int[]  transitionOffsets = new int[nodes + 1];
+      int    transitionCount   = 0;
+
+      for (int i=0;i<nodes;i++) {
+        transitionCount += edges[i].size();
+      }
+
+      char[] transitionChars   = new char[transitionCount];
+      int[]  transitionTargets = new int[transitionCount];
+      int    offset            = 0;
+
+      for (int i=0;i<nodes;i++) {
+        transitionOffsets[i] = offset;
+
+        for (Map.Entry<Character, Integer> edge : edges[i].entrySet()) {
+          transitionChars[offset]   = edge.getKey();
+          transitionTargets[offset] = edge.getValue();
+          offset++;
+        }
+      }
+
+      transitionOffsets[nodes] = offset;
+
+      return new KeywordAutomaton(asciiTransitions, transitionOffsets, transitionChars,
+                                  transitionTargets, failure, depth, ownFlags, flags);
+    }
+
+    private int allocate(int depth) {
+      children.add(new TreeMap<Character, Integer>());
+      depths.add(depth);
+      outputs.add(0);
+
+      return children.size() - 1;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point arithmetic on amounts held as primitive longs: bitcoin in
+ * satoshis, dollars in cents, and payout rates in parts per billion.
+ *
+ * Everything here other than the BigDecimal conversions, which are only
+ * used at the Coinbase API boundary, works without allocating.  Amounts
+ * are passed around as bare longs rather than wrapped in a value type so
+ * that the ledger can keep them in atomic longs and the payout path never
+ * boxes them; the unit is carried in the name, as in payoutSatoshis.
+ *
+ * @author Moxie Marlinspike
+ */
+public final class Money {
+
+  public static final int  SATOSHI_SCALE    = 8;
+  public static final long SATOSHIS_PER_BTC = 100000000L;
+
+  private static final int  RATE_SCALE       = 9;
+  private static final long RATE_DENOMINATOR = 1000000000L;
+
+  private Money() {}
+
+  public static long toSatoshis(BigDecimal btc) {
+    return btc.setScale(SATOSHI_SCALE, RoundingMode.DOWN).unscaledValue().longValue();
+  }
+
+  public static BigDecimal fromSatoshis(long satoshis) {
+    return BigDecimal.valueOf(satoshis, SATOSHI_SCALE);
+  }
+
+  /**
+   * Parses a decimal BTC amount such as "-0.01234567" into satoshis.
+   * Digits beyond the eighth decimal place are truncated, as toSatoshis does.
+   */
+  public static long parseSatoshis(CharSequence btc) {
+    int     length   = btc.length();
+    int     index    = 0;
+    boolean negative = false;
+
+    if (length > 0 && (btc.charAt(0) == '-' || btc.charAt(0) == '+')) {
+      negative = btc.charAt(0) == '-';
+      index++;
+    }
+
+    long    satoshis = 0;
+    int     decimals = -1;
+    boolean digits   = false;
+
+    for (;index<length;index++) {
+      char c = btc.charAt(index);
+
+      if (c == '.' && decimals == -1) {
+        decimals = 0;
+      } else if (c >= '0' && c <= '9') {
+        digits = true;
+
+        if (decimals == SATOSHI_SCALE) continue;
+        if (decimals != -1)            decimals++;
+
+        if (satoshis > (Long.MAX_VALUE - (c - '0')) / 10) {
+          throw new NumberFormatException("Amount out of range: " + btc);
+        }
+
+        satoshis = satoshis * 10 + (c - '0');
+      } else {
+        throw new NumberFormatException("Not a BTC amount: " + btc);
+      }
+    }
+
+    if (!digits) {
+      throw new NumberFormatException("Not a BTC amount: " + btc);
+    }
+
+    for (int i=Math.max(decimals, 0);i<SATOSHI_SCALE;i++) {
+      if (satoshis > Long.MAX_VALUE / 10) {
+        throw new NumberFormatException("Amount out of range: " + btc);
+      }
+
+      satoshis *= 10;
+    }
+
+    return negative ? -satoshis : satoshis;
+  }
+
+  /**
+   * @return The rate as parts per billion, rounded down.
+   */
+  public static long toPartsPerBillion(BigDecimal rate) {
+    return rate.movePointRight(RATE_SCALE).setScale(0, RoundingMode.DOWN).longValue();
+  }
+
+  /**
+   * @return ratePpb parts per billion of satoshis, rounded down to the satoshi.
+   */
+  public static long fraction(long satoshis, long ratePpb) {
+    return (satoshis / RATE_DENOMINATOR) * ratePpb +
+           ((satoshis % RATE_DENOMINATOR) * ratePpb) / RATE_DENOMINATOR;
+  }
+
+  /**
+   * Formats cents as a plain dollar amount with two decimal places, such as "12.05".
+   */
+  public static String formatCents(long cents) {
+    char[] buffer   = new char[21];
+    int    position = buffer.length;
+    long   absolute = Math.abs(cents);
+
+    buffer[--position] = (char)('0' + absolute % 10);
+    buffer[--position] = (char)('0' + (absolute / 10) % 10);
+    buffer[--position] = '.';
+
+    long dollars = absolute / 100;
+
+    do {
+      buffer[--position] = (char)('0' + dollars % 10);
+      dollars /= 10;
+    } while (dollars != 0);
+
+    if (cents < 0) {
+      buffer[--position] = '-';
+    }
+
+    return new String(buffer, position, buffer.length - position);
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed-capacity buffer that overwrites its oldest element once full.
+ *
+ * @author Moxie Marlinspike
+ */
+public class RingBuffer<T> {
+
+  private final Object[] elements;
+
+  private int next;
+  private int size;
+
+  public RingBuffer(int capacity) {
+    this.elements = new Object[capacity];
+  }
+
+  public synchronized void add(T element) {
+    elements[next] = element;
+    next           = (next + 1) % elements.length;
+    size           = Math.min(size + 1, elements.length);
+  }
+
+  /**
+   * @return A copy of the buffer's contents, most recently added first.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized List<T> toList() {
+    List<T> list = new ArrayList<>(size);
+
+    for (int i=1;i<=size;i++) {
+      list.add((T)elements[(next - i + elements.length) % elements.length]);
+    }
+
+    return list;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public int getCapacity() {
+    return elements.length;
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import com.codahale.metrics.Timer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An upstream fetch that is only ever in flight once.
+ *
+ * Callers that arrive while a fetch is running wait for it and share its
+ * result, rather than starting another.  The latency of each fetch that
+ * actually runs is recorded.
+ *
+ * @author Moxie Marlinspike
+ */
+public abstract class SingleFlight<T> {
+
+  private final Timer latency;
+
+  private Flight inFlight;
+
+  public SingleFlight(Timer latency) {
+    this.latency = latency;
+  }
+
+  protected abstract T load() throws IOException;
+
+  /**
+   * Fetches on the calling thread, or joins the fetch already in flight.
+   */
+  public T get() throws IOException {
+    Flight  task;
+    boolean owner = false;
+
+    synchronized (this) {
+      if (inFlight == null) {
+        inFlight = new Flight();
+        owner    = true;
+      }
+
+      task = inFlight;
+    }
+
+    if (owner) {
+      task.run();
+    }
+
+    return await(task);
+  }
+
+  /**
+   * Starts a fetch on the executor, or joins the fetch already in flight.
+   *
+   * @throws RejectedExecutionException if the executor won't run the fetch, which
+   *                                    is then failed for any caller that joined it.
+   */
+  public Future<T> start(Executor executor) {
+    Flight  task;
+    boolean owner = false;
+
+    synchronized (this) {
+      if (inFlight == null) {
+        inFlight = new Flight();
+        owner    = true;
+      }
+
+      task = inFlight;
+    }
+
+    if (owner) {
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        synchronized (this) {
+          if (inFlight == task) inFlight = null;
+        }
+
+        task.fail(e);
+        throw e;
+      }
+    }
+
+    return task;
+  }
+
+  public static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for fetch");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if      (cause instanceof IOException)      throw (IOException)cause;
+      else if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+      else if (cause instanceof Error)            throw (Error)cause;
+      else                                        throw new IOException(cause);
+    }
+  }
+
+  private class Flight extends FutureTask<T> {
+
+    private Flight() {
+      super(new Callable<T>() {
+        @Override
+        public T call() throws Exception {
+          Timer.Context timer = latency.time();
+
+          try {
+            return load();
+          } finally {
+            timer.stop();
+
+            synchronized (SingleFlight.this) {
+              inFlight = null;
+            }
+          }
+        }
+      });
+    }
+
+    private void fail(Throwable cause) {
+      setException(cause);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package org.whispersystems.bithub.tests.auth;
+
+import org.junit.Test;
+import org.whispersystems.bithub.auth.IpAllowList;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class IpAllowListTest {
+
+  @Test
+  public void testIpv4() {
+    IpAllowList allowList = new IpAllowList(IpAllowList.GITHUB_HOOK_RANGES);
+
+    assertThat(allowList.contains("192.30.252.1")).isTrue();
+    assertThat(allowList.contains("192.30.255.255")).isTrue();
+    assertThat(allowList.contains("140.82.127.3")).isTrue();
+    assertThat(allowList.contains("192.30.242.1")).isFalse();
+    assertThat(allowList.contains("192.30.256.1")).isFalse();
+    assertThat(allowList.contains("192.30.252")).isFalse();
+    assertThat(allowList.contains("")).isFalse();
+  }
+
+  @Test
+  public void testIpv6() {
+    IpAllowList allowList = new IpAllowList(Arrays.asList("2606:50c0::/32", "::ffff:0:0/96", "fe80::1/128"));
+
+    assertThat(allowList.contains("2606:50c0:8000::154")).isTrue();
+    assertThat(allowList.contains("2606:50C0:0:0:0:0:0:1")).isTrue();
+    assertThat(allowList.contains("[2606:50c0::1]")).isTrue();
+    assertThat(allowList.contains("::ffff:192.30.252.1")).isTrue();
+    assertThat(allowList.contains("fe80::1")).isTrue();
+    assertThat(allowList.contains("fe80::2")).isFalse();
+    assertThat(allowList.contains("2606:50c1::1")).isFalse();
+    assertThat(allowList.contains("2606:50c0::1::2")).isFalse();
+    assertThat(allowList.contains("2606:50c0:zz::1")).isFalse();
+    assertThat(allowList.contains("2606:50c0")).isFalse();
+  }
+
+  @Test
+  public void testForwardedChain() {
+    IpAllowList oneProxy   = new IpAllowList(IpAllowList.GITHUB_HOOK_RANGES, null, 0, 1);
+    IpAllowList twoProxies = new IpAllowList(IpAllowList.GITHUB_HOOK_RANGES, null, 0, 2);
+
+    assertThat(oneProxy.isAllowed("10.0.0.1, 192.30.252.1")).isTrue();
+    assertThat(oneProxy.isAllowed("192.30.252.1, 10.0.0.1")).isFalse();
+    assertThat(twoProxies.isAllowed("192.30.252.1, 10.0.0.1")).isTrue();
+    assertThat(twoProxies.isAllowed("192.30.252.1")).isFalse();
+    assertThat(oneProxy.isAllowed(null)).isFalse();
+  }
+
+  @Test
+  public void testTwoTrustedProxies() {
+    IpAllowList allowList = new IpAllowList(IpAllowList.GITHUB_HOOK_RANGES, null, 0, 2);
+
+    assertThat(allowList.isAllowed("192.30.252.1, 10.0.0.2")).isTrue();
+    assertThat(allowList.isAllowed("6.6.6.6, 192.30.252.1, 10.0.0.2")).isTrue();
+    assertThat(allowList.isAllowed("192.30.252.1, 6.6.6.6, 10.0.0.2")).isFalse();
+    assertThat(allowList.isAllowed("6.6.6.6, 192.30.252.1")).isFalse();
+    assertThat(allowList.isAllowed("10.0.0.2, 192.30.252.1")).isFalse();
+  }
+
+  @Test
+  public void testUpdate() {
+    IpAllowList allowList = new IpAllowList(IpAllowList.GITHUB_HOOK_RANGES);
+    allowList.update(Arrays.asList("10.0.0.0/8"));
+
+    assertThat(allowList.contains("10.1.2.3")).isTrue();
+    assertThat(allowList.contains("192.30.252.1")).isFalse();
+  }
+}
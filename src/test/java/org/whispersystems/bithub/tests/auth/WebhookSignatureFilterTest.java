@@ -0,0 +1,109 @@
+package org.whispersystems.bithub.tests.auth;
+
+import com.google.common.base.Charsets;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.core.ResourceConfig;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.whispersystems.bithub.auth.GithubWebhookAuthenticator;
+import org.whispersystems.bithub.auth.WebhookAuthProvider;
+import org.whispersystems.bithub.auth.WebhookSignatureFilter;
+import org.whispersystems.bithub.auth.WebhookSignatureVerifier;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.controllers.GithubController;
+import org.whispersystems.bithub.mappers.UnauthorizedHookExceptionMapper;
+import org.whispersystems.bithub.payouts.PayoutProcessor;
+import org.whispersystems.bithub.storage.BalanceLedger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.ws.rs.core.MediaType;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import io.dropwizard.testing.junit.ResourceTestRule;
+
+import static io.dropwizard.testing.FixtureHelpers.fixture;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WebhookSignatureFilterTest {
+
+  private static final String SECRET = "It's a Secret to Everybody";
+
+  private final CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+  private final GithubClient   githubClient   = mock(GithubClient.class);
+
+  private final List<RepositoryConfiguration> repositories = new LinkedList<RepositoryConfiguration>() {{
+    add(new RepositoryConfiguration("https://github.com/moxie0/test"));
+  }};
+
+  @Rule
+  public final ResourceTestRule resources = ResourceTestRule.builder()
+                                                            .addProperty(ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS,
+                                                                         new LinkedList<>(Collections.singletonList(new WebhookSignatureFilter(new WebhookSignatureVerifier(SECRET), 64 * 1024))))
+                                                            .addProvider(new UnauthorizedHookExceptionMapper())
+                                                            .addProvider(new WebhookAuthProvider(new GithubWebhookAuthenticator("bithub", "password")))
+                                                            .addResource(new GithubController(repositories, new PayoutProcessor(repositories, githubClient, coinbaseClient, new BalanceLedger(coinbaseClient), new BigDecimal(0.02)), null))
+                                                            .build();
+
+  @Before
+  public void setup() throws Exception {
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("10.01"));
+    when(coinbaseClient.getExchangeRate()).thenReturn(new BigDecimal(1.0));
+  }
+
+  @Test
+  public void testValidSignature() throws Exception {
+    String body = "payload=" + URLEncoder.encode(fixture("payloads/valid_commit.json"), "UTF-8");
+
+    assertThat(post(body, sign(body)).getStatus()).isEqualTo(204);
+  }
+
+  @Test
+  public void testInvalidSignature() throws Exception {
+    String body = "payload=" + URLEncoder.encode(fixture("payloads/valid_commit.json"), "UTF-8");
+
+    assertThat(post(body, sign(body + " ")).getStatus()).isEqualTo(401);
+    assertThat(post(body, null).getStatus()).isEqualTo(401);
+  }
+
+  @Test
+  public void testOversizedBody() throws Exception {
+    StringBuilder body = new StringBuilder("payload=");
+
+    while (body.length() <= 64 * 1024) {
+      body.append("aaaaaaaaaaaaaaaa");
+    }
+
+    assertThat(post(body.toString(), sign(body.toString())).getStatus()).isEqualTo(413);
+  }
+
+  private ClientResponse post(String body, String signature) {
+    WebResource.Builder request = resources.client().resource("/v1/github/commits/")
+                                              .header("X-Forwarded-For", "192.30.252.1")
+                                              .type(MediaType.APPLICATION_FORM_URLENCODED_TYPE);
+
+    if (signature != null) {
+      request = request.header(WebhookSignatureVerifier.HEADER, signature);
+    }
+
+    return request.post(ClientResponse.class, body);
+  }
+
+  private String sign(String body) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(SECRET.getBytes(Charsets.UTF_8), "HmacSHA256"));
+
+    return "sha256=" + Hex.encodeHexString(mac.doFinal(body.getBytes(Charsets.UTF_8)));
+  }
+}
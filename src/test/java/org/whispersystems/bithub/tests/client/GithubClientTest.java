@@ -0,0 +1,113 @@
+package org.whispersystems.bithub.tests.client;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.client.GithubRateLimiter;
+import org.whispersystems.bithub.entities.Repository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class GithubClientTest {
+
+  private static final String REPOSITORY_URL = "https://github.com/moxie0/test";
+
+  private final List<String> ifNoneMatch = new LinkedList<>();
+
+  private HttpServer     server;
+  private MetricRegistry metricRegistry;
+  private GithubClient   githubClient;
+
+  private volatile String etag        = "\"first\"";
+  private volatile String description = "First";
+
+  @Before
+  public void setup() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/repos/moxie0/test", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String validator = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+        synchronized (ifNoneMatch) {
+          ifNoneMatch.add(validator);
+        }
+
+        if (etag.equals(validator)) {
+          exchange.sendResponseHeaders(304, -1);
+          exchange.close();
+          return;
+        }
+
+        byte[] body = getRepositoryJson().getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("ETag", etag);
+        exchange.sendResponseHeaders(200, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    });
+    server.start();
+
+    metricRegistry = new MetricRegistry();
+    githubClient   = new GithubClient("http://127.0.0.1:" + server.getAddress().getPort() + "/",
+                                      "user", "token",
+                                      new GithubRateLimiter(0, 60000, metricRegistry),
+                                      metricRegistry);
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testNotModifiedServesCachedEntity() throws Exception {
+    Repository first  = githubClient.getRepository(REPOSITORY_URL);
+    Repository second = githubClient.getRepository(REPOSITORY_URL);
+
+    assertThat(ifNoneMatch).containsExactly(null, "\"first\"");
+    assertThat(first.getDescription()).isEqualTo("First");
+    assertThat(second).isSameAs(first);
+
+    assertThat(metricRegistry.getMeters().get("org.whispersystems.bithub.client.GithubClient.modified").getCount()).isEqualTo(1);
+    assertThat(metricRegistry.getMeters().get("org.whispersystems.bithub.client.GithubClient.not-modified").getCount()).isEqualTo(1);
+    assertThat(metricRegistry.getCounters().get("org.whispersystems.bithub.client.GithubClient.bytes-saved").getCount())
+        .isEqualTo(getRepositoryJson().getBytes(StandardCharsets.UTF_8).length);
+  }
+
+  @Test
+  public void testModifiedReplacesCachedEntity() throws Exception {
+    assertThat(githubClient.getRepository(REPOSITORY_URL).getDescription()).isEqualTo("First");
+
+    etag        = "\"second\"";
+    description = "Second";
+
+    assertThat(githubClient.getRepository(REPOSITORY_URL).getDescription()).isEqualTo("Second");
+    assertThat(githubClient.getRepository(REPOSITORY_URL).getDescription()).isEqualTo("Second");
+
+    assertThat(ifNoneMatch).containsExactly(null, "\"first\"", "\"second\"");
+    assertThat(metricRegistry.getMeters().get("org.whispersystems.bithub.client.GithubClient.modified").getCount()).isEqualTo(2);
+    assertThat(metricRegistry.getMeters().get("org.whispersystems.bithub.client.GithubClient.not-modified").getCount()).isEqualTo(1);
+  }
+
+  private String getRepositoryJson() {
+    return "{\"url\": \"" + REPOSITORY_URL + "\", \"name\": \"test\", \"description\": \"" + description + "\"," +
+           " \"owner\": {\"name\": \"moxie0\", \"email\": \"moxie@example.com\"}}";
+  }
+}
@@ -0,0 +1,80 @@
+package org.whispersystems.bithub.tests.client;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import org.junit.Test;
+import org.whispersystems.bithub.client.GithubRateLimiter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GithubRateLimiterTest {
+
+  @Test
+  public void testRefreshLeavesReserveForPayouts() throws Exception {
+    final GithubRateLimiter rateLimiter = new GithubRateLimiter(10, 60000, new MetricRegistry());
+    long                    reset       = System.currentTimeMillis() / 1000 + 3600;
+
+    assertThat(rateLimiter.update(createResponse(200, "5000", "10", String.valueOf(reset), null))).isFalse();
+    assertThat(rateLimiter.getRemaining()).isEqualTo(10);
+
+    final CountDownLatch refreshed = new CountDownLatch(1);
+
+    Thread refresh = new Thread() {
+      @Override
+      public void run() {
+        try {
+          rateLimiter.acquire(GithubRateLimiter.Priority.REFRESH);
+          refreshed.countDown();
+        } catch (Exception e) {
+          // Interrupted below.
+        }
+      }
+    };
+
+    refresh.start();
+
+    rateLimiter.acquire(GithubRateLimiter.Priority.PAYOUT);
+
+    assertThat(rateLimiter.getRemaining()).isEqualTo(9);
+    assertThat(refreshed.await(200, TimeUnit.MILLISECONDS)).isFalse();
+    assertThat(rateLimiter.getQueued()).isEqualTo(1);
+
+    refresh.interrupt();
+    refresh.join();
+  }
+
+  @Test
+  public void testThrottledRequestsPause() throws Exception {
+    GithubRateLimiter rateLimiter = new GithubRateLimiter(0, 60000, new MetricRegistry());
+
+    assertThat(rateLimiter.update(createResponse(403, null, null, null, "1"))).isTrue();
+
+    long start = System.currentTimeMillis();
+    rateLimiter.acquire(GithubRateLimiter.Priority.PAYOUT);
+
+    assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(900);
+  }
+
+  private ClientResponse createResponse(int status, String limit, String remaining,
+                                        String reset, String retryAfter)
+  {
+    InBoundHeaders headers = new InBoundHeaders();
+
+    if (limit      != null) headers.putSingle("X-RateLimit-Limit", limit);
+    if (remaining  != null) headers.putSingle("X-RateLimit-Remaining", remaining);
+    if (reset      != null) headers.putSingle("X-RateLimit-Reset", reset);
+    if (retryAfter != null) headers.putSingle("Retry-After", retryAfter);
+
+    ClientResponse response = mock(ClientResponse.class);
+    when(response.getStatus()).thenReturn(status);
+    when(response.getHeaders()).thenReturn(headers);
+
+    return response;
+  }
+}
@@ -0,0 +1,63 @@
+package org.whispersystems.bithub.tests.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.whispersystems.bithub.codec.PushEventCodec;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.PushEvent;
+
+import java.io.IOException;
+
+import static io.dropwizard.testing.FixtureHelpers.fixture;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PushEventCodecTest {
+
+  private static final String[] PAYLOADS = {"valid_commit", "multiple_commits_authors", "non_master_push",
+                                            "opt_in_commit", "opt_out_commit", "no_opt_in_commit",
+                                            "invalid_repo", "invalid_origin"};
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  public void testMatchesDataBinding() throws Exception {
+    for (String name : PAYLOADS) {
+      String    payload  = fixture("payloads/" + name + ".json");
+      PushEvent expected = objectMapper.readValue(payload, PushEvent.class);
+      PushEvent actual   = PushEventCodec.decode(payload);
+
+      assertThat(actual.getRef()).isEqualTo(expected.getRef());
+      assertThat(actual.getRepository().getUrl()).isEqualTo(expected.getRepository().getUrl());
+      assertThat(actual.getRepository().getName()).isEqualTo(expected.getRepository().getName());
+      assertThat(actual.getRepository().getOwner().getName()).isEqualTo(expected.getRepository().getOwner().getName());
+      assertThat(actual.getCommits()).hasSize(expected.getCommits().size());
+
+      for (int i=0;i<actual.getCommits().size();i++) {
+        Commit actualCommit   = actual.getCommits().get(i);
+        Commit expectedCommit = expected.getCommits().get(i);
+
+        assertThat(actualCommit.getSha()).isEqualTo(expectedCommit.getSha());
+        assertThat(actualCommit.getMessage()).isEqualTo(expectedCommit.getMessage());
+        assertThat(actualCommit.getUrl()).isEqualTo(expectedCommit.getUrl());
+        assertThat(actualCommit.getAuthor().getEmail()).isEqualTo(expectedCommit.getAuthor().getEmail());
+        assertThat(actualCommit.getAuthor().getUsername()).isEqualTo(expectedCommit.getAuthor().getUsername());
+      }
+    }
+  }
+
+  @Test
+  public void testHeadFallsBackToAfter() throws Exception {
+    PushEvent event = PushEventCodec.decode(fixture("payloads/valid_commit.json"));
+    assertThat(event.getHead()).isEqualTo("bcf09f8b4a32921114587e4814a3f0849aa9900f");
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingRepository() throws Exception {
+    PushEventCodec.decode("{\"ref\":\"refs/heads/master\",\"commits\":[]}");
+  }
+
+  @Test(expected = IOException.class)
+  public void testMalformed() throws Exception {
+    PushEventCodec.decode("{\"ref\":");
+  }
+}
@@ -17,6 +17,7 @@
 
 package org.whispersystems.bithub.tests.controllers;
 
+import com.codahale.metrics.MetricRegistry;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.core.util.MultivaluedMapImpl;
 import org.apache.commons.codec.binary.Base64;
@@ -24,13 +25,21 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.whispersystems.bithub.auth.GithubWebhookAuthenticator;
+import org.whispersystems.bithub.auth.IpAllowList;
 import org.whispersystems.bithub.client.CoinbaseClient;
 import org.whispersystems.bithub.client.GithubClient;
 import org.whispersystems.bithub.client.TransferFailedException;
 import org.whispersystems.bithub.config.RepositoryConfiguration;
 import org.whispersystems.bithub.controllers.GithubController;
 import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.mappers.IOExceptionMapper;
 import org.whispersystems.bithub.mappers.UnauthorizedHookExceptionMapper;
+import org.whispersystems.bithub.payouts.PayoutProcessor;
+import org.whispersystems.bithub.payouts.PushEventDeduplicator;
+import org.whispersystems.bithub.payouts.PushEventQueue;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.PushEventJournal;
 
 import javax.ws.rs.core.MediaType;
 import java.io.InputStream;
@@ -49,7 +58,12 @@ import static org.mockito.Mockito.*;
 
 public class GithubControllerTest {
 
-  private static final BigDecimal BALANCE = new BigDecimal(10.01);
+  private static final BigDecimal BALANCE = new BigDecimal("10.01");
+
+  // Payouts are computed in satoshis by the ledger: 2% of the balance,
+  // and then 2% of what remains, rounded down to 8 decimal places.
+  private static final BigDecimal FIRST_PAYOUT  = new BigDecimal("0.20020000");
+  private static final BigDecimal SECOND_PAYOUT = new BigDecimal("0.19619600");
   private static final BigDecimal EXCHANGE_RATE = new BigDecimal(1.0);
 
   private final CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
@@ -72,9 +86,19 @@ public class GithubControllerTest {
   public final ResourceTestRule resources = ResourceTestRule.builder()
                                                             .addProvider(new UnauthorizedHookExceptionMapper())
                                                             .addProvider(new BasicAuthProvider<>(new GithubWebhookAuthenticator(authUsername, authPassword), authRealm))
-                                                            .addResource(new GithubController(repositories, githubClient, coinbaseClient, new BigDecimal(0.02)))
+                                                            .addResource(new GithubController(repositories, new PayoutProcessor(repositories, githubClient, coinbaseClient, new BalanceLedger(coinbaseClient), new BigDecimal(0.02)), null))
                                                             .build();
 
+  private final PushEventQueue pushEventQueue = mock(PushEventQueue.class);
+
+  @Rule
+  public final ResourceTestRule queuedResources = ResourceTestRule.builder()
+                                                                  .addProvider(new IOExceptionMapper())
+                                                                  .addProvider(new BasicAuthProvider<>(new GithubWebhookAuthenticator(authUsername, authPassword), authRealm))
+                                                                  .addResource(new GithubController(repositories, null, pushEventQueue, null,
+                                                                                                    new PushEventDeduplicator(100, 60000, new MetricRegistry()),
+                                                                                                    new IpAllowList(IpAllowList.GITHUB_HOOK_RANGES)))
+                                                                  .build();
 
   @Before
   public void setup() throws Exception {
@@ -185,7 +209,7 @@ public class GithubControllerTest {
         .post(ClientResponse.class, post);
 
     verify(coinbaseClient).sendPayment(any(Author.class),
-                                       eq(BALANCE.multiply(new BigDecimal(0.02))),
+                                       eq(FIRST_PAYOUT),
                                        anyString());
   }
 
@@ -201,7 +225,7 @@ public class GithubControllerTest {
         .post(ClientResponse.class, post);
 
     verify(coinbaseClient, never()).sendPayment(any(Author.class),
-                                       eq(BALANCE.multiply(new BigDecimal(0.02))),
+                                       eq(FIRST_PAYOUT),
                                        anyString());
   }
 
@@ -216,10 +240,8 @@ public class GithubControllerTest {
         .type(MediaType.APPLICATION_FORM_URLENCODED_TYPE)
         .post(ClientResponse.class, post);
 
-    verify(coinbaseClient, times(1)).sendPayment(any(Author.class), eq(BALANCE.multiply(new BigDecimal(0.02))),
-        anyString());
-    verify(coinbaseClient, times(1)).sendPayment(any(Author.class), eq(BALANCE.subtract(BALANCE.multiply(new BigDecimal(0.02)))
-        .multiply(new BigDecimal(0.02))), anyString());
+    verify(coinbaseClient, times(1)).sendPayment(any(Author.class), eq(FIRST_PAYOUT), anyString());
+    verify(coinbaseClient, times(1)).sendPayment(any(Author.class), eq(SECOND_PAYOUT), anyString());
   }
 
   @Test
@@ -234,7 +256,7 @@ public class GithubControllerTest {
         .post(ClientResponse.class, post);
 
     verify(coinbaseClient).sendPayment(any(Author.class),
-                                       eq(BALANCE.multiply(new BigDecimal(0.02))),
+                                       eq(FIRST_PAYOUT),
                                        anyString());
   }
 
@@ -254,5 +276,46 @@ public class GithubControllerTest {
                                                 anyString());
   }
 
+  @Test
+  public void testQueuedCommitIsAccepted() throws Exception, TransferFailedException {
+    when(pushEventQueue.enqueue(any(PushEvent.class), any(PushEventJournal.Entry.class))).thenReturn(true);
+
+    ClientResponse response = postQueued("/payloads/valid_commit.json", "delivery-1");
+
+    assertThat(response.getStatus()).isEqualTo(202);
+    verify(pushEventQueue).enqueue(any(PushEvent.class), any(PushEventJournal.Entry.class));
+    verify(coinbaseClient, never()).sendPayment(any(Author.class), any(BigDecimal.class), anyString());
+  }
+
+  @Test
+  public void testFullQueueIsUnavailable() throws Exception {
+    when(pushEventQueue.enqueue(any(PushEvent.class), any(PushEventJournal.Entry.class))).thenReturn(false);
+
+    ClientResponse response = postQueued("/payloads/valid_commit.json", "delivery-1");
+
+    assertThat(response.getStatus()).isEqualTo(503);
+  }
+
+  @Test
+  public void testRejectedDeliveryIsNotDeduplicated() throws Exception {
+    when(pushEventQueue.enqueue(any(PushEvent.class), any(PushEventJournal.Entry.class))).thenReturn(false, true);
+
+    assertThat(postQueued("/payloads/valid_commit.json", "delivery-1").getStatus()).isEqualTo(503);
+    assertThat(postQueued("/payloads/valid_commit.json", "delivery-1").getStatus()).isEqualTo(202);
+    assertThat(postQueued("/payloads/valid_commit.json", "delivery-1").getStatus()).isEqualTo(204);
+
+    verify(pushEventQueue, times(2)).enqueue(any(PushEvent.class), any(PushEventJournal.Entry.class));
+  }
+
+  private ClientResponse postQueued(String payloadPath, String deliveryId) {
+    MultivaluedMapImpl post = new MultivaluedMapImpl();
+    post.add("payload", payload(payloadPath));
 
+    return queuedResources.client().resource("/v1/github/commits/")
+        .header("X-Forwarded-For", "192.30.252.1")
+        .header("X-GitHub-Delivery", deliveryId)
+        .header("Authorization", authString)
+        .type(MediaType.APPLICATION_FORM_URLENCODED_TYPE)
+        .post(ClientResponse.class, post);
+  }
 }
@@ -0,0 +1,56 @@
+package org.whispersystems.bithub.tests.controllers;
+
+import com.sun.jersey.api.client.ClientResponse;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Rule;
+import org.junit.Test;
+import org.whispersystems.bithub.auth.AdminAuthProvider;
+import org.whispersystems.bithub.auth.AdminAuthenticator;
+import org.whispersystems.bithub.auth.GithubWebhookAuthenticator;
+import org.whispersystems.bithub.auth.WebhookAuthProvider;
+import org.whispersystems.bithub.controllers.PaymentAdminController;
+import org.whispersystems.bithub.payouts.PaymentRetryQueue;
+
+import io.dropwizard.testing.junit.ResourceTestRule;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PaymentAdminControllerTest {
+
+  private static final String WEBHOOK_AUTH = "Basic " + Base64.encodeBase64String("bithub:hook".getBytes());
+  private static final String ADMIN_AUTH   = "Basic " + Base64.encodeBase64String("admin:secret".getBytes());
+
+  private final PaymentRetryQueue retryQueue = mock(PaymentRetryQueue.class);
+
+  @Rule
+  public final ResourceTestRule resources = ResourceTestRule.builder()
+                                                            .addProvider(new WebhookAuthProvider(new GithubWebhookAuthenticator("bithub", "hook")))
+                                                            .addProvider(new AdminAuthProvider(new AdminAuthenticator("admin", "secret")))
+                                                            .addResource(new PaymentAdminController(retryQueue))
+                                                            .build();
+
+  @Test
+  public void testWebhookCredentialsRejected() throws Exception {
+    ClientResponse response = resources.client().resource("/v1/admin/payments/dead/1234/replay")
+        .header("Authorization", WEBHOOK_AUTH)
+        .post(ClientResponse.class);
+
+    assertThat(response.getStatus()).isEqualTo(401);
+    verify(retryQueue, never()).replay("1234");
+  }
+
+  @Test
+  public void testAdminCredentialsAccepted() throws Exception {
+    when(retryQueue.replay("1234")).thenReturn(true);
+
+    ClientResponse response = resources.client().resource("/v1/admin/payments/dead/1234/replay")
+        .header("Authorization", ADMIN_AUTH)
+        .post(ClientResponse.class);
+
+    assertThat(response.getStatus()).isEqualTo(204);
+    verify(retryQueue).replay("1234");
+  }
+}
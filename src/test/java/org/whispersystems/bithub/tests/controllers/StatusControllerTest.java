@@ -9,6 +9,7 @@ import org.whispersystems.bithub.config.RepositoryConfiguration;
 import org.whispersystems.bithub.controllers.StatusController;
 import org.whispersystems.bithub.entities.CoinbseRecentTransactionsResponse;
 import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.storage.BalanceLedger;
 import org.whispersystems.bithub.storage.CacheManager;
 
 import javax.ws.rs.core.MediaType;
@@ -17,6 +18,7 @@ import java.util.LinkedList;
 
 import io.dropwizard.testing.junit.ResourceTestRule;
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -37,11 +39,12 @@ public class StatusControllerTest {
 
   static {
     try {
-      when(coinbaseClient.getRecentTransactions()).thenReturn(fromJson(jsonFixture("payloads/transactions.json"), CoinbseRecentTransactionsResponse.class).getTransactions());
+      when(coinbaseClient.getTransactions(anyInt(), anyInt())).thenReturn(fromJson(jsonFixture("payloads/transactions.json"), CoinbseRecentTransactionsResponse.class));
       when(coinbaseClient.getAccountBalance()).thenReturn(BALANCE);
       when(coinbaseClient.getExchangeRate()).thenReturn(EXCHANGE_RATE);
 
       CacheManager coinbaseManager = new CacheManager(coinbaseClient, githubClient,
+                                                      new BalanceLedger(coinbaseClient),
                                                       new LinkedList<RepositoryConfiguration>(),
                                                       PAYOUT_RATE);
       coinbaseManager.start();
@@ -80,4 +83,19 @@ public class StatusControllerTest {
     assertThat(response.getType()).isEqualTo(MediaType.APPLICATION_JSON_TYPE);
   }
 
+  @Test
+  public void testTransactionsRevalidate() throws Exception {
+    ClientResponse response = resources.client().resource("/v1/status/transactions/?format=json").accept(MediaType.APPLICATION_JSON_TYPE)
+        .get(ClientResponse.class);
+
+    String tag = response.getHeaders().getFirst("ETag");
+    assertThat(tag).isNotNull();
+
+    ClientResponse revalidated = resources.client().resource("/v1/status/transactions/?format=json").accept(MediaType.APPLICATION_JSON_TYPE)
+        .header("If-None-Match", tag)
+        .get(ClientResponse.class);
+
+    assertThat(revalidated.getStatus()).isEqualTo(304);
+  }
+
 }
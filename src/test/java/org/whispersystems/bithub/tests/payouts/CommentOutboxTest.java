@@ -0,0 +1,75 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.CommentOutbox;
+
+import java.io.IOException;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CommentOutboxTest {
+
+  private static final Repository REPOSITORY = new Repository("https://github.com/moxie/test",
+                                                              new Author("moxie", null, null),
+                                                              "test", null);
+  private static final Commit     COMMIT     = new Commit("abcd", "Fix", new Author("Alice", "alice@example.com", "alice"),
+                                                          "https://github.com/moxie/test/commit/abcd", true);
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRetriesUntilPosted() throws Exception {
+    GithubClient githubClient = mock(GithubClient.class);
+    doThrow(new IOException("502")).doNothing()
+        .when(githubClient).addCommitComment("moxie", "test", "abcd", "Thanks!");
+
+    CommentOutbox outbox = new CommentOutbox(githubClient, folder.getRoot(), 1, 3, 10, 100, new MetricRegistry());
+    outbox.start();
+    outbox.enqueue(REPOSITORY, COMMIT, "Thanks!");
+
+    verify(githubClient, timeout(5000).times(2)).addCommitComment("moxie", "test", "abcd", "Thanks!");
+    outbox.stop();
+
+    assertThat(folder.getRoot().list()).isEmpty();
+  }
+
+  @Test
+  public void testResumesSpooledComments() throws Exception {
+    GithubClient unavailable = mock(GithubClient.class);
+    doThrow(new IOException("502")).when(unavailable).addCommitComment("moxie", "test", "abcd", "Thanks!");
+
+    CommentOutbox outbox = new CommentOutbox(unavailable, folder.getRoot(), 1, 3, 60000, 60000, new MetricRegistry());
+    outbox.start();
+    outbox.enqueue(REPOSITORY, COMMIT, "Thanks!");
+
+    verify(unavailable, timeout(5000)).addCommitComment("moxie", "test", "abcd", "Thanks!");
+    outbox.stop();
+
+    assertThat(folder.getRoot().list()).hasSize(1);
+
+    GithubClient available = mock(GithubClient.class);
+    doNothing().when(available).addCommitComment("moxie", "test", "abcd", "Thanks!");
+
+    CommentOutbox resumed = new CommentOutbox(available, folder.getRoot(), 1, 3, 60000, 60000, new MetricRegistry());
+    resumed.start();
+
+    verify(available, timeout(5000).times(1)).addCommitComment("moxie", "test", "abcd", "Thanks!");
+    resumed.stop();
+
+    assertThat(folder.getRoot().list()).isEmpty();
+  }
+}
@@ -0,0 +1,58 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.payouts.CommitRules;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class CommitRulesTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @Test
+  public void testDefaultRules() {
+    CommitRules moneymoney = new CommitRules(new RepositoryConfiguration("https://github.com/moxie0/test"));
+    CommitRules freebie    = new CommitRules(new RepositoryConfiguration("https://github.com/moxie0/test", "FREEBIE"));
+
+    assertThat(moneymoney.isPayableMessage("Fix the thing")).isTrue();
+    assertThat(moneymoney.isPayableMessage("Fix the thing // FREEBIE")).isFalse();
+    assertThat(moneymoney.isPayableMessage("Merge branch 'master'")).isFalse();
+    assertThat(moneymoney.isPayableMessage("Mer")).isTrue();
+    assertThat(moneymoney.isPayableMessage("Not a Merge")).isTrue();
+    assertThat(moneymoney.isPayableMessage(null)).isFalse();
+
+    assertThat(freebie.isPayableMessage("Fix the thing")).isFalse();
+    assertThat(freebie.isPayableMessage("Fix the thing MONEYMONEY")).isTrue();
+    assertThat(freebie.isPayableMessage("Fix the thing MONEYMONE")).isFalse();
+    assertThat(freebie.isPayableMessage("Merge MONEYMONEY")).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownModeIsRejected() {
+    new CommitRules(new RepositoryConfiguration("https://github.com/moxie0/test", "MONEY"));
+  }
+
+  @Test
+  public void testConfiguredRules() throws Exception {
+    RepositoryConfiguration configuration = mapper.readValue("{\"url\": \"https://github.com/moxie0/test\"," +
+                                                             " \"optOutKeywords\": [\"[skip pay]\", \"he\", \"she\", \"hers\"]," +
+                                                             " \"skipPrefixes\": [\"Revert\", \"Rev\"]," +
+                                                             " \"excludedAuthors\": [\"Bot@Example.com\"]}",
+                                                             RepositoryConfiguration.class);
+    CommitRules rules = new CommitRules(configuration);
+
+    assertThat(rules.isPayableMessage("Add docs [skip pay]")).isFalse();
+    assertThat(rules.isPayableMessage("Add docs [skip")).isTrue();
+    assertThat(rules.isPayableMessage("ushers")).isFalse();
+    assertThat(rules.isPayableMessage("Revert a change")).isFalse();
+    assertThat(rules.isPayableMessage("Review a change")).isFalse();
+    assertThat(rules.isPayableMessage("Merge a change")).isTrue();
+
+    assertThat(rules.isPayable(new Commit("a", "Fix", new Author("Bot", "bot@example.com", "bot"), "url", true))).isFalse();
+    assertThat(rules.isPayable(new Commit("a", "Fix", new Author("Alice", "alice@example.com", "alice"), "url", true))).isTrue();
+  }
+}
@@ -0,0 +1,45 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.payouts.JournalReplayer;
+import org.whispersystems.bithub.payouts.PushEventQueue;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.whispersystems.bithub.tests.util.JsonHelper.jsonFixture;
+
+public class JournalReplayerTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRetriesWhileQueueIsFull() throws Exception {
+    PushEventJournal journal = new PushEventJournal(folder.getRoot(), 4096);
+    journal.start();
+
+    PushEventJournal.Entry first  = journal.append(jsonFixture("payloads/valid_commit.json"));
+    PushEventJournal.Entry second = journal.append(jsonFixture("payloads/valid_commit.json"));
+
+    PushEventQueue queue = mock(PushEventQueue.class);
+    when(queue.enqueue(any(PushEvent.class), any(PushEventJournal.Entry.class))).thenReturn(false, false, true);
+
+    JournalReplayer replayer = new JournalReplayer(journal, null, queue, 10);
+    replayer.start();
+
+    verify(queue, timeout(5000).times(3)).enqueue(any(PushEvent.class), eq(first));
+    verify(queue, timeout(5000).times(1)).enqueue(any(PushEvent.class), eq(second));
+
+    replayer.stop();
+    journal.stop();
+  }
+}
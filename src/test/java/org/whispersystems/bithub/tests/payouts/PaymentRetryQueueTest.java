@@ -0,0 +1,127 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.FailedPayment;
+import org.whispersystems.bithub.payouts.CommentOutbox;
+import org.whispersystems.bithub.payouts.PaymentRetryQueue;
+import org.whispersystems.bithub.payouts.PayoutListener;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.util.ConversionRate;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PaymentRetryQueueTest {
+
+  private static final Author AUTHOR = new Author("Alice", "alice@example.com", "alice");
+  private static final Commit COMMIT = new Commit("abcd", "Fix", AUTHOR, "https://github.com/moxie/test/commit/abcd", true);
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRetriesUntilSent() throws Throwable {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    CommentOutbox  outbox         = mock(CommentOutbox.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    doThrow(new TransferFailedException()).doNothing()
+        .when(coinbaseClient).sendPayment(eq(AUTHOR), eq(new BigDecimal("0.02000000")), eq(COMMIT.getUrl()));
+
+    BalanceLedger     ledger     = new BalanceLedger(coinbaseClient);
+    PaymentRetryQueue retryQueue = new PaymentRetryQueue(coinbaseClient, ledger, outbox, folder.getRoot(),
+                                                         5, 10, 100, new MetricRegistry());
+    ledger.reconcile();
+    retryQueue.start();
+    retryQueue.enqueue("moxie", "test", COMMIT, 2000000, "Thanks!");
+
+    assertThat(ledger.getBalance()).isEqualTo(new BigDecimal("0.98000000"));
+
+    verify(outbox, timeout(5000)).enqueue("moxie", "test", "abcd", "Thanks!");
+    retryQueue.stop();
+
+    assertThat(folder.getRoot().list()).isEmpty();
+    assertThat(retryQueue.getDeadLetters()).isEmpty();
+  }
+
+  @Test
+  public void testDeadLettersSurviveRestart() throws Throwable {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    CommentOutbox  outbox         = mock(CommentOutbox.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    doThrow(new TransferFailedException())
+        .when(coinbaseClient).sendPayment(any(Author.class), any(BigDecimal.class), anyString());
+
+    BalanceLedger     ledger     = new BalanceLedger(coinbaseClient);
+    PaymentRetryQueue retryQueue = new PaymentRetryQueue(coinbaseClient, ledger, outbox, folder.getRoot(),
+                                                         2, 10, 100, new MetricRegistry());
+    ledger.reconcile();
+    retryQueue.start();
+    retryQueue.enqueue("moxie", "test", COMMIT, 2000000, "Thanks!");
+
+    verify(coinbaseClient, timeout(5000)).sendPayment(any(Author.class), any(BigDecimal.class), anyString());
+    retryQueue.stop();
+
+    assertThat(retryQueue.getDeadLetters()).hasSize(1);
+    assertThat(ledger.getBalance()).isEqualTo(new BigDecimal("1.00000000"));
+
+    doNothing().when(coinbaseClient).sendPayment(any(Author.class), any(BigDecimal.class), anyString());
+
+    PaymentRetryQueue resumed = new PaymentRetryQueue(coinbaseClient, ledger, outbox, folder.getRoot(),
+                                                      2, 10, 100, new MetricRegistry());
+    resumed.start();
+
+    List<FailedPayment> deadLetters = resumed.getDeadLetters();
+
+    assertThat(deadLetters).hasSize(1);
+    assertThat(deadLetters.get(0).getAttempts()).isEqualTo(2);
+    assertThat(resumed.discard("unknown")).isFalse();
+    assertThat(resumed.replay(deadLetters.get(0).getId())).isTrue();
+
+    verify(outbox, timeout(5000)).enqueue("moxie", "test", "abcd", "Thanks!");
+    resumed.stop();
+
+    assertThat(resumed.getDeadLetters()).isEmpty();
+    assertThat(folder.getRoot().list()).isEmpty();
+  }
+
+  @Test
+  public void testNotifiesListenerWhenRetrySent() throws Throwable {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    PayoutListener listener       = mock(PayoutListener.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    when(coinbaseClient.getExchangeRate()).thenReturn(new BigDecimal("500"));
+    doThrow(new TransferFailedException()).doNothing()
+        .when(coinbaseClient).sendPayment(any(Author.class), any(BigDecimal.class), anyString());
+
+    BalanceLedger     ledger     = new BalanceLedger(coinbaseClient);
+    PaymentRetryQueue retryQueue = new PaymentRetryQueue(coinbaseClient, ledger, mock(CommentOutbox.class),
+                                                         listener, null, 5, 10, 100, new MetricRegistry());
+    ledger.reconcile();
+    retryQueue.start();
+    retryQueue.enqueue("moxie", "test", COMMIT, 2000000, "Thanks!");
+
+    verify(listener, timeout(5000)).onPaymentSent(eq(COMMIT), eq(2000000L), any(ConversionRate.class));
+    retryQueue.stop();
+  }
+}
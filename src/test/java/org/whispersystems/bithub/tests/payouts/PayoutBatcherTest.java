@@ -0,0 +1,152 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.payouts.PayoutBatcher;
+import org.whispersystems.bithub.storage.BalanceLedger;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PayoutBatcherTest {
+
+  private static final Author AUTHOR = new Author("Alice", "alice@example.com", "alice");
+
+  @Test
+  public void testCoalescesPayouts() throws Throwable {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+
+    BalanceLedger  ledger  = new BalanceLedger(coinbaseClient);
+    PayoutBatcher  batcher = new PayoutBatcher(coinbaseClient, 60000, 2, new MetricRegistry());
+    CountDownLatch sent    = new CountDownLatch(2);
+
+    batcher.add(AUTHOR, "https://github.com/a/b/commit/1", ledger.reserve(new BigDecimal("0.02")), new LatchCallback(sent, true));
+    batcher.add(AUTHOR, "https://github.com/a/b/commit/2", ledger.reserve(new BigDecimal("0.02")), new LatchCallback(sent, true));
+
+    assertThat(sent.await(5, TimeUnit.SECONDS)).isTrue();
+
+    List<String> urls = Arrays.asList("https://github.com/a/b/commit/1", "https://github.com/a/b/commit/2");
+    verify(coinbaseClient).sendPayment(eq(AUTHOR), eq(new BigDecimal("0.03960000")), eq(urls));
+
+    batcher.stop();
+  }
+
+  @Test
+  public void testFailedBatchReleases() throws Throwable {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    doThrow(new TransferFailedException()).when(coinbaseClient)
+        .sendPayment(any(Author.class), any(BigDecimal.class), anyListOf(String.class));
+
+    BalanceLedger  ledger  = new BalanceLedger(coinbaseClient);
+    PayoutBatcher  batcher = new PayoutBatcher(coinbaseClient, 60000, 10, new MetricRegistry());
+    CountDownLatch failed  = new CountDownLatch(1);
+
+    batcher.add(AUTHOR, "https://github.com/a/b/commit/1", ledger.reserve(new BigDecimal("0.02")), new LatchCallback(failed, false));
+    batcher.stop();
+
+    assertThat(failed.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(ledger.getBalance()).isEqualTo(new BigDecimal("1.00000000"));
+  }
+
+  @Test
+  public void testStopSendsQueuedFullBatches() throws Throwable {
+    final Author         other          = new Author("Bob", "bob@example.com", "bob");
+    final CountDownLatch sending        = new CountDownLatch(1);
+    final CountDownLatch unblock        = new CountDownLatch(1);
+    CoinbaseClient       coinbaseClient = mock(CoinbaseClient.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        sending.countDown();
+        unblock.await();
+        return null;
+      }
+    }).when(coinbaseClient).sendPayment(eq(AUTHOR), any(BigDecimal.class), anyListOf(String.class));
+
+    BalanceLedger        ledger  = new BalanceLedger(coinbaseClient);
+    final PayoutBatcher  batcher = new PayoutBatcher(coinbaseClient, 60000, 2, new MetricRegistry());
+    CountDownLatch       sent    = new CountDownLatch(4);
+
+    batcher.add(AUTHOR, "https://github.com/a/b/commit/1", ledger.reserve(new BigDecimal("0.02")), new LatchCallback(sent, true));
+    batcher.add(AUTHOR, "https://github.com/a/b/commit/2", ledger.reserve(new BigDecimal("0.02")), new LatchCallback(sent, true));
+
+    assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+    batcher.add(other, "https://github.com/a/b/commit/3", ledger.reserve(new BigDecimal("0.02")), new LatchCallback(sent, true));
+    batcher.add(other, "https://github.com/a/b/commit/4", ledger.reserve(new BigDecimal("0.02")), new LatchCallback(sent, true));
+
+    Thread stopper = new Thread() {
+      @Override
+      public void run() {
+        try {
+          batcher.stop();
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+
+    stopper.start();
+    unblock.countDown();
+    stopper.join(5000);
+
+    assertThat(stopper.isAlive()).isFalse();
+    assertThat(sent.getCount()).isEqualTo(0);
+    verify(coinbaseClient).sendPayment(eq(other), any(BigDecimal.class), anyListOf(String.class));
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void testAddAfterStopIsRejected() throws Throwable {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+
+    BalanceLedger ledger  = new BalanceLedger(coinbaseClient);
+    PayoutBatcher batcher = new PayoutBatcher(coinbaseClient, 60000, 10, new MetricRegistry());
+
+    batcher.stop();
+    batcher.add(AUTHOR, "https://github.com/a/b/commit/1", ledger.reserve(new BigDecimal("0.02")), new LatchCallback(new CountDownLatch(1), true));
+  }
+
+  private static class LatchCallback implements PayoutBatcher.Callback {
+    private final CountDownLatch latch;
+    private final boolean        expectSent;
+
+    private LatchCallback(CountDownLatch latch, boolean expectSent) {
+      this.latch      = latch;
+      this.expectSent = expectSent;
+    }
+
+    @Override
+    public void onSent(BalanceLedger.Reservation reservation) {
+      if (expectSent) latch.countDown();
+    }
+
+    @Override
+    public void onFailed(BalanceLedger.Reservation reservation) {
+      if (!expectSent) latch.countDown();
+    }
+  }
+}
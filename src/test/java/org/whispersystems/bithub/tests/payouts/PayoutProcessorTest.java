@@ -0,0 +1,157 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.codec.PushEventCodec;
+import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.JournalReplayer;
+import org.whispersystems.bithub.payouts.PayoutProcessor;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.PaidCommitIndex;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PayoutProcessorTest {
+
+  private static final String REPOSITORY = "https://github.com/moxie0/test";
+  private static final String SHA        = "ba1b681c71db4fcd461954b1bf344bc6e29411e5";
+
+  private final List<RepositoryConfiguration> repositories = Arrays.asList(new RepositoryConfiguration(REPOSITORY));
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCrashBetweenClaimAndSendIsReplayed() throws Throwable {
+    File   journalDirectory = folder.newFolder("journal");
+    File   paidDirectory    = folder.newFolder("paid");
+    final String payload    = payload("/payloads/valid_commit.json");
+
+    CoinbaseClient   crashingClient = createCoinbaseClient("10.00");
+    PushEventJournal journal        = new PushEventJournal(journalDirectory, 4096);
+    PaidCommitIndex  paidCommits    = new PaidCommitIndex(paidDirectory, 1000);
+
+    final CountDownLatch sending = new CountDownLatch(1);
+
+    // The process dies during the transfer, after claiming the commit but
+    // before paying it, so the transfer never returns.
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        sending.countDown();
+        new CountDownLatch(1).await();
+        return null;
+      }
+    }).when(crashingClient).sendPayment(any(Author.class), any(BigDecimal.class), anyString());
+
+    journal.start();
+    paidCommits.start();
+
+    final PayoutProcessor        crashing = new PayoutProcessor(repositories, mock(GithubClient.class), crashingClient,
+                                                                new BalanceLedger(crashingClient), new BigDecimal(0.02),
+                                                                journal, null, null, null, paidCommits, null);
+    final PushEventJournal.Entry entry    = journal.append(payload);
+
+    Thread crashed = new Thread() {
+      @Override
+      public void run() {
+        try {
+          crashing.process(PushEventCodec.decode(payload), entry);
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+
+    crashed.setDaemon(true);
+    crashed.start();
+
+    assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+    journal.stop();
+    paidCommits.stop();
+
+    CoinbaseClient   coinbaseClient = createCoinbaseClient("10.00");
+    GithubClient     githubClient   = mock(GithubClient.class);
+    PushEventJournal reopened       = new PushEventJournal(journalDirectory, 4096);
+    PaidCommitIndex  reopenedPaid   = new PaidCommitIndex(paidDirectory, 1000);
+
+    reopened.start();
+    reopenedPaid.start();
+
+    assertThat(reopenedPaid.isPaid(REPOSITORY, SHA)).isFalse();
+
+    PayoutProcessor processor = new PayoutProcessor(repositories, githubClient, coinbaseClient,
+                                                    new BalanceLedger(coinbaseClient), new BigDecimal(0.02),
+                                                    reopened, null, null, null, reopenedPaid, null);
+
+    new JournalReplayer(reopened, processor, null).start();
+
+    verify(coinbaseClient, timeout(5000)).sendPayment(any(Author.class), any(BigDecimal.class), anyString());
+    verify(githubClient, timeout(5000)).addCommitComment(any(Repository.class), any(Commit.class), anyString());
+
+    assertThat(reopenedPaid.isPaid(REPOSITORY, SHA)).isTrue();
+
+    reopened.stop();
+    reopenedPaid.stop();
+  }
+
+  @Test
+  public void testEmptyBalanceLeavesCommitPayable() throws Throwable {
+    CoinbaseClient  coinbaseClient = createCoinbaseClient("0.00");
+    PaidCommitIndex paidCommits    = new PaidCommitIndex(null, 1000);
+    String          payload        = payload("/payloads/valid_commit.json");
+
+    PayoutProcessor processor = new PayoutProcessor(repositories, mock(GithubClient.class), coinbaseClient,
+                                                    new BalanceLedger(coinbaseClient), new BigDecimal(0.02),
+                                                    null, null, null, null, paidCommits, null);
+
+    processor.process(PushEventCodec.decode(payload));
+
+    verify(coinbaseClient, never()).sendPayment(any(Author.class), any(BigDecimal.class), anyString());
+    assertThat(paidCommits.isPaid(REPOSITORY, SHA)).isFalse();
+    assertThat(paidCommits.claim(REPOSITORY, SHA)).isTrue();
+  }
+
+  private CoinbaseClient createCoinbaseClient(String balance) throws Exception {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal(balance));
+    when(coinbaseClient.getExchangeRate()).thenReturn(BigDecimal.ONE);
+
+    return coinbaseClient;
+  }
+
+  private String payload(String path) {
+    InputStream is = getClass().getResourceAsStream(path);
+    Scanner     s  = new Scanner(is).useDelimiter("\\A");
+    return s.hasNext() ? s.next() : "";
+  }
+}
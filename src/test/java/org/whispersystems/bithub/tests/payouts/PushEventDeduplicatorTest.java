@@ -0,0 +1,40 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.whispersystems.bithub.codec.PushEventCodec;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.payouts.PushEventDeduplicator;
+
+import static io.dropwizard.testing.FixtureHelpers.fixture;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PushEventDeduplicatorTest {
+
+  @Test
+  public void testDuplicates() throws Exception {
+    MetricRegistry        metrics      = new MetricRegistry();
+    PushEventDeduplicator deduplicator = new PushEventDeduplicator(100, 60000, metrics);
+    PushEvent             event        = PushEventCodec.decode(fixture("payloads/valid_commit.json"));
+    PushEvent             other        = PushEventCodec.decode(fixture("payloads/multiple_commits_authors.json"));
+
+    assertThat(deduplicator.isDuplicate("delivery-1", event)).isFalse();
+    assertThat(deduplicator.isDuplicate("delivery-1", event)).isTrue();
+    assertThat(deduplicator.isDuplicate("delivery-2", event)).isTrue();
+    assertThat(deduplicator.isDuplicate("delivery-3", other)).isFalse();
+    assertThat(deduplicator.isDuplicate("delivery-1", other)).isTrue();
+
+    assertThat(metrics.counter(MetricRegistry.name(PushEventDeduplicator.class, "hits")).getCount()).isEqualTo(3);
+    assertThat(metrics.counter(MetricRegistry.name(PushEventDeduplicator.class, "misses")).getCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testForget() throws Exception {
+    PushEventDeduplicator deduplicator = new PushEventDeduplicator(100, 60000, new MetricRegistry());
+    PushEvent             event        = PushEventCodec.decode(fixture("payloads/valid_commit.json"));
+
+    assertThat(deduplicator.isDuplicate("delivery-1", event)).isFalse();
+    deduplicator.forget("delivery-1", event);
+    assertThat(deduplicator.isDuplicate("delivery-1", event)).isFalse();
+  }
+}
@@ -0,0 +1,69 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.PayoutProcessor;
+import org.whispersystems.bithub.payouts.PushEventQueue;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class PushEventQueueTest {
+
+  @Test
+  public void testOrderedWithinRepository() throws Exception {
+    final Map<String, List<String>> processed = new ConcurrentHashMap<>();
+    PayoutProcessor                 processor = mock(PayoutProcessor.class);
+
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        PushEvent event = (PushEvent)invocation.getArguments()[0];
+        processed.get(event.getRepository().getUrl()).add(event.getHead());
+        return null;
+      }
+    }).when(processor).process(any(PushEvent.class), any(PushEventJournal.Entry.class));
+
+    PushEventQueue queue    = new PushEventQueue(processor, 100, 4, new MetricRegistry());
+    List<String>   expected = new LinkedList<>();
+
+    for (int i=0;i<8;i++) {
+      processed.put("https://github.com/moxie/repo" + i, Collections.synchronizedList(new LinkedList<String>()));
+    }
+
+    queue.start();
+
+    for (int i=0;i<50;i++) {
+      for (int j=0;j<8;j++) {
+        assertThat(queue.enqueue(createEvent("https://github.com/moxie/repo" + j, "head" + i), null)).isTrue();
+      }
+
+      expected.add("head" + i);
+    }
+
+    queue.stop();
+
+    for (List<String> heads : processed.values()) {
+      assertThat(heads).isEqualTo(expected);
+    }
+  }
+
+  private PushEvent createEvent(String url, String head) {
+    return new PushEvent(head, "refs/heads/master", 0, new LinkedList<Commit>(),
+                         new Repository(url, null, null, null));
+  }
+}
@@ -0,0 +1,52 @@
+package org.whispersystems.bithub.tests.storage;
+
+import org.junit.Test;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.storage.BalanceLedger;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BalanceLedgerTest {
+
+  @Test
+  public void testStopShutsDownFetchThreads() throws Exception {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    when(coinbaseClient.getExchangeRate()).thenReturn(new BigDecimal("500"));
+
+    Set<Thread>   existing = getFetchThreads();
+    BalanceLedger ledger   = new BalanceLedger(coinbaseClient);
+
+    ledger.start();
+    ledger.reconcile();
+
+    Set<Thread> started = getFetchThreads();
+    started.removeAll(existing);
+
+    assertThat(started).isNotEmpty();
+
+    ledger.stop();
+
+    for (Thread thread : started) {
+      thread.join(5000);
+      assertThat(thread.isAlive()).isFalse();
+    }
+  }
+
+  private Set<Thread> getFetchThreads() {
+    Set<Thread> threads = new HashSet<>();
+
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("ledger-fetch-")) threads.add(thread);
+    }
+
+    return threads;
+  }
+}
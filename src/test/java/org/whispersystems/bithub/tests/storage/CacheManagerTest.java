@@ -0,0 +1,102 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.CacheConfiguration;
+import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.CoinbseRecentTransactionsResponse;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.CacheManager;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.whispersystems.bithub.tests.util.JsonHelper.fromJson;
+
+public class CacheManagerTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRepositoriesFailIndependently() throws Exception {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    GithubClient   githubClient   = mock(GithubClient.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    when(coinbaseClient.getExchangeRate()).thenReturn(new BigDecimal("500"));
+    when(coinbaseClient.getTransactions(anyInt(), anyInt())).thenReturn(fromJson("{\"transactions\": [], \"num_pages\": 1}", CoinbseRecentTransactionsResponse.class));
+
+    Repository first = createRepository("first");
+    Repository third = createRepository("third");
+
+    when(githubClient.getRepository("https://github.com/moxie/first")).thenReturn(first);
+    when(githubClient.getRepository("https://github.com/moxie/second")).thenThrow(new IOException("502"));
+    when(githubClient.getRepository("https://github.com/moxie/third")).thenReturn(third);
+
+    List<RepositoryConfiguration> configured = Arrays.asList(new RepositoryConfiguration("https://github.com/moxie/first"),
+                                                             new RepositoryConfiguration("https://github.com/moxie/second"),
+                                                             new RepositoryConfiguration("https://github.com/moxie/third"));
+
+    CacheManager cacheManager = new CacheManager(coinbaseClient, githubClient, new BalanceLedger(coinbaseClient),
+                                                 configured, new BigDecimal("0.02"));
+    cacheManager.start();
+
+    assertThat(cacheManager.getRepositories()).containsExactly(first, third);
+    cacheManager.stop();
+  }
+
+  @Test
+  public void testServesSnapshotOnStartup() throws Exception {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    GithubClient   githubClient   = mock(GithubClient.class);
+    Repository     repository     = createRepository("first");
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    when(coinbaseClient.getExchangeRate()).thenReturn(new BigDecimal("500"));
+    when(coinbaseClient.getTransactions(anyInt(), anyInt())).thenReturn(fromJson("{\"transactions\": [], \"num_pages\": 1}", CoinbseRecentTransactionsResponse.class));
+    when(githubClient.getRepository("https://github.com/moxie/first")).thenReturn(repository);
+
+    List<RepositoryConfiguration> configured = Arrays.asList(new RepositoryConfiguration("https://github.com/moxie/first"));
+    CacheConfiguration            config     = fromJson("{\"directory\": \"" + folder.getRoot().getAbsolutePath() + "\"}",
+                                                        CacheConfiguration.class);
+
+    CacheManager cacheManager = new CacheManager(coinbaseClient, githubClient, new BalanceLedger(coinbaseClient),
+                                                 configured, new BigDecimal("0.02"),
+                                                 new CommitDescriptionCache(githubClient, null, 10, new MetricRegistry()),
+                                                 config, new MetricRegistry());
+    cacheManager.start();
+    cacheManager.stop();
+
+    CoinbaseClient unavailable = mock(CoinbaseClient.class);
+    when(unavailable.getAccountBalance()).thenThrow(new IOException("503"));
+
+    CacheManager restarted = new CacheManager(unavailable, mock(GithubClient.class), new BalanceLedger(unavailable),
+                                              configured, new BigDecimal("0.02"),
+                                              new CommitDescriptionCache(githubClient, null, 10, new MetricRegistry()),
+                                              config, new MetricRegistry());
+    restarted.start();
+
+    assertThat(restarted.getCurrentPaymentAmount().getEntity().getPayment()).isEqualTo("10.00");
+    assertThat(restarted.getRepositories()).hasSize(1);
+    assertThat(restarted.getRepositories().get(0).getUrl()).isEqualTo("https://github.com/moxie/first");
+    restarted.stop();
+  }
+
+  private Repository createRepository(String name) {
+    return new Repository("https://github.com/moxie/" + name, new Author("moxie", null, null), name, null);
+  }
+}
@@ -0,0 +1,62 @@
+package org.whispersystems.bithub.tests.storage;
+
+import org.junit.Test;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Payment;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.entities.Transaction;
+import org.whispersystems.bithub.storage.CacheSnapshot;
+import org.whispersystems.bithub.storage.CurrentPayment;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CacheSnapshotTest {
+
+  @Test
+  public void testUnchangedDataKeepsVersion() {
+    CacheSnapshot snapshot = CacheSnapshot.create()
+                                          .withPayment(createPayment("1.00"))
+                                          .withTransactions(Arrays.asList(createTransaction("1.00")))
+                                          .withRepositories(Arrays.asList(createRepository()));
+
+    assertThat(snapshot.getVersion()).isEqualTo(3);
+
+    assertThat(snapshot.withPayment(createPayment("1.00"))).isSameAs(snapshot);
+    assertThat(snapshot.withTransactions(Arrays.asList(createTransaction("1.00")))).isSameAs(snapshot);
+    assertThat(snapshot.withRepositories(Arrays.asList(createRepository()))).isSameAs(snapshot);
+
+    assertThat(snapshot.withPayment(createPayment("0.98")).getVersion()).isEqualTo(4);
+    assertThat(snapshot.withTransactions(Arrays.asList(createTransaction("0.98"))).getVersion()).isEqualTo(4);
+  }
+
+  @Test
+  public void testTagsDifferAcrossEpochs() {
+    CacheSnapshot first  = CacheSnapshot.create().withPayment(createPayment("1.00"));
+    CacheSnapshot second = CacheSnapshot.create().withPayment(createPayment("2.00"));
+
+    assertThat(first.getVersion()).isEqualTo(second.getVersion());
+    assertThat(first.getTag()).isNotEqualTo(second.getTag());
+    assertThat(first.withPayment(createPayment("3.00")).getTag()).isNotEqualTo(first.getTag());
+  }
+
+  private CurrentPayment createPayment(String usd) {
+    CurrentPayment payment = mock(CurrentPayment.class);
+    when(payment.getEntity()).thenReturn(new Payment(usd));
+
+    return payment;
+  }
+
+  private Transaction createTransaction(String amount) {
+    return new Transaction("alice", amount, "https://github.com/moxie0/test/commit/abcd",
+                           "abcd", "2 days ago", "Fix");
+  }
+
+  private Repository createRepository() {
+    return new Repository("https://github.com/moxie0/test", new Author("Moxie", "moxie@example.com", "moxie0"),
+                          "test", "A test repository");
+  }
+}
@@ -0,0 +1,55 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class CommitDescriptionCacheTest {
+
+  private static final String URL = "https://github.com/moxie/test/commit/abcd";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testFetchesOnce() throws Exception {
+    GithubClient githubClient = mock(GithubClient.class);
+    when(githubClient.getCommitDescription(URL)).thenReturn("Fix");
+
+    CommitDescriptionCache cache = new CommitDescriptionCache(githubClient, null, 10, new MetricRegistry());
+
+    for (int i=0;i<10;i++) {
+      assertThat(cache.getDescription(URL, "abcd")).isEqualTo("Fix");
+    }
+
+    verify(githubClient, times(1)).getCommitDescription(URL);
+  }
+
+  @Test
+  public void testPersistsAcrossRestarts() throws Exception {
+    GithubClient githubClient = mock(GithubClient.class);
+    when(githubClient.getCommitDescription(URL)).thenReturn("Fix");
+
+    CommitDescriptionCache cache = new CommitDescriptionCache(githubClient, folder.getRoot(), 10, new MetricRegistry());
+    cache.start();
+    cache.getDescription(URL, "abcd");
+    cache.stop();
+
+    GithubClient           restartedClient = mock(GithubClient.class);
+    CommitDescriptionCache restarted       = new CommitDescriptionCache(restartedClient, folder.getRoot(), 10, new MetricRegistry());
+    restarted.start();
+
+    assertThat(restarted.getDescription(URL, "abcd")).isEqualTo("Fix");
+    verifyZeroInteractions(restartedClient);
+  }
+}
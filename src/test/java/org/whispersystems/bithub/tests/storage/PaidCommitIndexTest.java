@@ -0,0 +1,103 @@
+package org.whispersystems.bithub.tests.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.storage.PaidCommitIndex;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PaidCommitIndexTest {
+
+  private static final String REPOSITORY = "https://github.com/moxie/test";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testClaimsOnce() throws Exception {
+    PaidCommitIndex index = new PaidCommitIndex(null, 1000);
+    index.start();
+
+    assertThat(index.isPaid(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isFalse();
+    assertThat(index.claim(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isTrue();
+    assertThat(index.claim(REPOSITORY.toUpperCase(), "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isFalse();
+    assertThat(index.isPaid(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isFalse();
+
+    index.confirm(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e");
+
+    assertThat(index.claim(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isFalse();
+    assertThat(index.claim("https://github.com/moxie/other", "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isTrue();
+    assertThat(index.isPaid(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isTrue();
+
+    index.stop();
+  }
+
+  @Test
+  public void testReleasedClaimCanBeClaimedAgain() throws Exception {
+    PaidCommitIndex index = new PaidCommitIndex(null, 1000);
+    index.start();
+
+    assertThat(index.claim(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isTrue();
+    index.release(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e");
+
+    assertThat(index.isPaid(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isFalse();
+    assertThat(index.claim(REPOSITORY, "6dcb09b5b57875f334f61aebed695e2e4193db5e")).isTrue();
+
+    index.stop();
+  }
+
+  @Test
+  public void testPersistsAcrossRestarts() throws Exception {
+    PaidCommitIndex index = new PaidCommitIndex(folder.getRoot(), 100);
+    index.start();
+
+    for (int i=0;i<300;i++) {
+      assertThat(index.claim(REPOSITORY, String.format("%040x", i))).isTrue();
+      index.confirm(REPOSITORY, String.format("%040x", i));
+    }
+
+    assertThat(index.claim(REPOSITORY, String.format("%040x", 300))).isTrue();
+    index.stop();
+
+    PaidCommitIndex reopened = new PaidCommitIndex(folder.getRoot(), 100);
+    reopened.start();
+
+    assertThat(reopened.size()).isEqualTo(300);
+
+    for (int i=0;i<300;i++) {
+      assertThat(reopened.isPaid(REPOSITORY, String.format("%040x", i))).isTrue();
+    }
+
+    assertThat(reopened.isPaid(REPOSITORY, String.format("%040x", 300))).isFalse();
+    assertThat(reopened.claim(REPOSITORY, String.format("%040x", 300))).isTrue();
+    reopened.stop();
+  }
+
+  @Test
+  public void testImportedHistoryIsPaid() throws Exception {
+    List<String> history = new LinkedList<>();
+
+    for (int i=0;i<300;i++) {
+      history.add(String.format("%040x", i));
+    }
+
+    PaidCommitIndex index = new PaidCommitIndex(folder.getRoot(), 100);
+    index.start();
+    index.importPaid(REPOSITORY, history);
+
+    assertThat(index.claim(REPOSITORY, String.format("%040x", 0))).isFalse();
+    index.stop();
+
+    PaidCommitIndex reopened = new PaidCommitIndex(folder.getRoot(), 100);
+    reopened.start();
+
+    assertThat(reopened.size()).isEqualTo(300);
+    assertThat(reopened.isPaid(REPOSITORY, String.format("%040x", 299))).isTrue();
+    assertThat(reopened.isPaid(REPOSITORY, String.format("%040x", 300))).isFalse();
+    reopened.stop();
+  }
+}
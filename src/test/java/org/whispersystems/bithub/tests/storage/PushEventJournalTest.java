@@ -0,0 +1,67 @@
+package org.whispersystems.bithub.tests.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PushEventJournalTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReplayUnfinished() throws Exception {
+    PushEventJournal journal = new PushEventJournal(folder.getRoot(), 4096);
+    journal.start();
+
+    PushEventJournal.Entry finished   = journal.append("{\"first\":true}");
+    PushEventJournal.Entry unfinished = journal.append("{\"second\":true}");
+
+    journal.markPaid(finished, "aaaa");
+    journal.markCompleted(finished);
+    journal.markPaid(unfinished, "bbbb");
+    journal.stop();
+
+    PushEventJournal reopened = new PushEventJournal(folder.getRoot(), 4096);
+    reopened.start();
+
+    List<PushEventJournal.Entry> entries = reopened.getUnfinished();
+
+    assertThat(entries).hasSize(1);
+    assertThat(entries.get(0).getPayload()).isEqualTo("{\"second\":true}");
+    assertThat(entries.get(0).isPaid("bbbb")).isTrue();
+    assertThat(entries.get(0).isCommented("bbbb")).isFalse();
+
+    PushEventJournal.Entry next = reopened.append("{\"third\":true}");
+    assertThat(next.getId()).isGreaterThan(entries.get(0).getId());
+    reopened.stop();
+  }
+
+  @Test
+  public void testCompactionWhenFull() throws Exception {
+    PushEventJournal journal = new PushEventJournal(folder.getRoot(), 512);
+    journal.start();
+
+    PushEventJournal.Entry pending = journal.append("{\"pending\":true}");
+
+    for (int i=0;i<100;i++) {
+      PushEventJournal.Entry entry = journal.append("{\"index\":" + i + "}");
+      journal.markCompleted(entry);
+    }
+
+    journal.markCommented(pending, "cccc");
+    journal.stop();
+
+    PushEventJournal reopened = new PushEventJournal(folder.getRoot(), 512);
+    reopened.start();
+
+    assertThat(reopened.getUnfinished()).hasSize(1);
+    assertThat(reopened.getUnfinished().get(0).isCommented("cccc")).isTrue();
+    reopened.stop();
+  }
+}
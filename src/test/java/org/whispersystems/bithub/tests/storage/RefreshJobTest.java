@@ -0,0 +1,124 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Test;
+import org.whispersystems.bithub.storage.RefreshJob;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class RefreshJobTest {
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final ExecutorService          workers   = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  @Test
+  public void testFailuresKeepLastValue() throws Exception {
+    final AtomicInteger calls = new AtomicInteger(0);
+
+    RefreshJob<Integer> job = new RefreshJob<Integer>("test", 60000, 1000, new MetricRegistry()) {
+      @Override
+      protected Integer load() throws IOException {
+        switch (calls.incrementAndGet()) {
+          case 2:  throw new IOException("502");
+          case 3:  throw new IllegalStateException("Unexpected response");
+          default: return calls.get();
+        }
+      }
+    };
+
+    job.refresh();
+    job.schedule(scheduler, workers);
+
+    job.run();
+    assertThat(job.get()).isEqualTo(1);
+
+    job.run();
+    assertThat(job.get()).isEqualTo(1);
+
+    job.run();
+    assertThat(job.get()).isEqualTo(4);
+  }
+
+  @Test
+  public void testTimesOut() throws Exception {
+    final AtomicInteger calls = new AtomicInteger(0);
+
+    RefreshJob<Integer> job = new RefreshJob<Integer>("test", 60000, 100, new MetricRegistry()) {
+      @Override
+      protected Integer load() throws IOException {
+        if (calls.incrementAndGet() > 1) {
+          try {
+            Thread.sleep(10000);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        }
+
+        return calls.get();
+      }
+    };
+
+    job.refresh();
+    long lastSuccess = job.getLastSuccess();
+
+    job.schedule(scheduler, workers);
+    job.run();
+
+    assertThat(job.get()).isEqualTo(1);
+    assertThat(job.getLastSuccess()).isEqualTo(lastSuccess);
+  }
+
+  @Test
+  public void testStuckLoadIsNotStartedAgain() throws Exception {
+    final AtomicInteger  calls   = new AtomicInteger(0);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    RefreshJob<Integer> job = new RefreshJob<Integer>("test", 60000, 100, new MetricRegistry()) {
+      @Override
+      protected Integer load() throws IOException {
+        int call = calls.incrementAndGet();
+
+        if (call == 2) {
+          Uninterruptibles.awaitUninterruptibly(release);
+        }
+
+        return call;
+      }
+    };
+
+    job.refresh();
+    job.schedule(scheduler, workers);
+
+    job.run();
+    job.run();
+
+    assertThat(calls.get()).isEqualTo(2);
+    assertThat(job.get()).isEqualTo(1);
+
+    release.countDown();
+
+    long deadline = System.currentTimeMillis() + 5000;
+
+    while (job.get() != 3 && System.currentTimeMillis() < deadline) {
+      job.run();
+      Thread.sleep(10);
+    }
+
+    assertThat(job.get()).isEqualTo(3);
+  }
+}
@@ -0,0 +1,90 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.entities.CoinbseRecentTransactionsResponse;
+import org.whispersystems.bithub.entities.Transaction;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+import org.whispersystems.bithub.storage.TransactionSync;
+
+import java.math.BigDecimal;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.whispersystems.bithub.tests.util.JsonHelper.fromJson;
+import static org.whispersystems.bithub.tests.util.JsonHelper.jsonFixture;
+
+public class TransactionSyncTest {
+
+  @Test
+  public void testSyncsOnlyNewTransactions() throws Exception {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    GithubClient   githubClient   = mock(GithubClient.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    when(coinbaseClient.getExchangeRate()).thenReturn(new BigDecimal("500"));
+    when(coinbaseClient.getTransactions(anyInt(), anyInt())).thenReturn(fromJson(jsonFixture("payloads/transactions.json"), CoinbseRecentTransactionsResponse.class));
+    when(githubClient.getCommitDescription(anyString())).thenReturn("Fix");
+
+    BalanceLedger ledger = new BalanceLedger(coinbaseClient);
+    ledger.reconcile();
+
+    TransactionSync sync = new TransactionSync(coinbaseClient,
+                                               new CommitDescriptionCache(githubClient, null, 10, new MetricRegistry()),
+                                               ledger, 10);
+
+    assertThat(sync.sync()).hasSize(2);
+    assertThat(sync.sync()).hasSize(2);
+
+    verify(coinbaseClient, times(2)).getTransactions(1, 25);
+    verify(githubClient, times(1)).getCommitDescription(anyString());
+  }
+
+  @Test
+  public void testSyncConfirmsProvisional() throws Exception {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    GithubClient   githubClient   = mock(GithubClient.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    when(coinbaseClient.getExchangeRate()).thenReturn(new BigDecimal("500"));
+    when(coinbaseClient.getTransactions(anyInt(), anyInt())).thenReturn(fromJson(jsonFixture("payloads/transactions.json"), CoinbseRecentTransactionsResponse.class));
+
+    TransactionSync sync = new TransactionSync(coinbaseClient,
+                                               new CommitDescriptionCache(githubClient, null, 10, new MetricRegistry()),
+                                               new BalanceLedger(coinbaseClient), 10);
+
+    Transaction sent = new Transaction("moxie0", "5.50", "https://github.com/WhisperSystems/BitHub/commit/88edf54e5b57c80ac05093a9be90965fd41291c2",
+                                       "88edf54e", "moments ago", "Fix");
+
+    assertThat(sync.addProvisional(sent)).containsExactly(sent);
+    assertThat(sync.sync()).hasSize(2).doesNotContain(sent);
+  }
+
+  @Test
+  public void testSyncDropsUnlistedProvisional() throws Exception {
+    CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+    GithubClient   githubClient   = mock(GithubClient.class);
+
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.00"));
+    when(coinbaseClient.getExchangeRate()).thenReturn(new BigDecimal("500"));
+    when(coinbaseClient.getTransactions(anyInt(), anyInt())).thenReturn(fromJson(jsonFixture("payloads/transactions.json"), CoinbseRecentTransactionsResponse.class));
+
+    TransactionSync sync = new TransactionSync(coinbaseClient,
+                                               new CommitDescriptionCache(githubClient, null, 10, new MetricRegistry()),
+                                               new BalanceLedger(coinbaseClient), 10);
+
+    Transaction lost = new Transaction("moxie0", "5.50", "https://github.com/WhisperSystems/BitHub/commit/0000000000000000000000000000000000000000",
+                                       "00000000", "moments ago", "Never listed");
+
+    assertThat(sync.addProvisional(lost)).containsExactly(lost);
+    assertThat(sync.sync()).hasSize(2).doesNotContain(lost);
+  }
+}
@@ -0,0 +1,57 @@
+package org.whispersystems.bithub.tests.util;
+
+import org.junit.Test;
+import org.whispersystems.bithub.util.ConversionRate;
+import org.whispersystems.bithub.util.Money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class MoneyTest {
+
+  @Test
+  public void testParseSatoshis() {
+    assertThat(Money.parseSatoshis("1")).isEqualTo(100000000L);
+    assertThat(Money.parseSatoshis("-0.01234567")).isEqualTo(-1234567L);
+    assertThat(Money.parseSatoshis("10.01")).isEqualTo(1001000000L);
+    assertThat(Money.parseSatoshis(".5")).isEqualTo(50000000L);
+    assertThat(Money.parseSatoshis("0.123456789")).isEqualTo(12345678L);
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testParseInvalid() {
+    Money.parseSatoshis("1.2.3");
+  }
+
+  @Test
+  public void testFormatCents() {
+    assertThat(Money.formatCents(0)).isEqualTo("0.00");
+    assertThat(Money.formatCents(5)).isEqualTo("0.05");
+    assertThat(Money.formatCents(123450)).isEqualTo("1234.50");
+    assertThat(Money.formatCents(-21)).isEqualTo("-0.21");
+  }
+
+  @Test
+  public void testToCentsMatchesCeiling() {
+    Random random = new Random(1234);
+    String[] rates = {"1", "431.2345", "0.5", "64123.87", "1E+3", "0.1234567890123456789"};
+
+    for (String rate : rates) {
+      ConversionRate conversionRate = ConversionRate.valueOf(new BigDecimal(rate));
+
+      for (int i=0;i<10000;i++) {
+        long satoshis = i < 5000 ? random.nextInt(100000000) - 50000000
+                                 : random.nextLong() % 2100000000000000L;
+
+        long expected = Money.fromSatoshis(satoshis).multiply(new BigDecimal(rate))
+                             .setScale(2, RoundingMode.CEILING)
+                             .unscaledValue().longValue();
+
+        assertThat(conversionRate.toCents(satoshis)).isEqualTo(expected);
+      }
+    }
+  }
+}
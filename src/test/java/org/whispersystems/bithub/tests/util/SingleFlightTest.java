@@ -0,0 +1,108 @@
+package org.whispersystems.bithub.tests.util;
+
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+import org.whispersystems.bithub.util.SingleFlight;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SingleFlightTest {
+
+  @Test
+  public void testConcurrentCallersShareFetch() throws Exception {
+    final AtomicInteger  loads   = new AtomicInteger(0);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    SingleFlight<Integer> fetch = new SingleFlight<Integer>(new Timer()) {
+      @Override
+      protected Integer load() throws IOException {
+        started.countDown();
+
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+
+        return loads.incrementAndGet();
+      }
+    };
+
+    ExecutorService       executor = Executors.newCachedThreadPool();
+    List<Future<Integer>> results  = new LinkedList<>();
+
+    results.add(fetch.start(executor));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    for (int i=0;i<4;i++) {
+      results.add(fetch.start(executor));
+    }
+
+    release.countDown();
+
+    for (Future<Integer> result : results) {
+      assertThat(SingleFlight.await(result)).isEqualTo(1);
+    }
+
+    assertThat(fetch.get()).isEqualTo(2);
+    executor.shutdown();
+  }
+
+  @Test
+  public void testFailureReachesCallerAndIsNotCached() throws Exception {
+    final AtomicInteger loads = new AtomicInteger(0);
+
+    SingleFlight<Integer> fetch = new SingleFlight<Integer>(new Timer()) {
+      @Override
+      protected Integer load() throws IOException {
+        if (loads.incrementAndGet() == 1) throw new IOException("502");
+        return loads.get();
+      }
+    };
+
+    try {
+      fetch.get();
+      throw new AssertionError("Expected IOException");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("502");
+    }
+
+    assertThat(fetch.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testRejectedStartIsNotJoined() throws Exception {
+    final AtomicInteger loads = new AtomicInteger(0);
+
+    SingleFlight<Integer> fetch = new SingleFlight<Integer>(new Timer()) {
+      @Override
+      protected Integer load() throws IOException {
+        return loads.incrementAndGet();
+      }
+    };
+
+    ExecutorService stopped = Executors.newSingleThreadExecutor();
+    stopped.shutdown();
+
+    try {
+      fetch.start(stopped);
+      throw new AssertionError("Expected RejectedExecutionException");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    assertThat(fetch.get()).isEqualTo(1);
+  }
+}